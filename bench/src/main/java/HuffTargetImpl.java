@@ -0,0 +1,97 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * HuffTarget calling HuffProcessor and the bit streams directly,
+ * loaded by name from the benchmarks in package huffbench.
+ */
+public class HuffTargetImpl implements huffbench.HuffTarget {
+
+	@Override
+	public byte[] compress(byte[] data, String format) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length);
+		BitInputStream in = new BitInputStream(new ByteArrayInputStream(data));
+		if (format.equals("adaptive")) {
+			new AdaptiveHuffProcessor().compress(in, new BitOutputStream(bytes));
+			return bytes.toByteArray();
+		}
+		HuffProcessor hp = new HuffProcessor();
+		if (format.equals("canon11")) {
+			hp.setMaxCodeLength(11);
+			format = "canon";
+		}
+		if (format.equals("canon1")) {
+			hp.setEncodeMode(HuffProcessor.ENCODE_SYMBOLS);
+			format = "canon";
+		}
+		if (format.equals("blockslsb")) {
+			hp.setLsbFirst(true);
+			format = "blocks";
+		}
+		if (format.equals("blocks4")) {
+			hp.setInterleaved(true);
+			format = "blocks";
+		}
+		hp.setHeaderFormat(format(format));
+		hp.compress(in, new BitOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public byte[] decompress(byte[] data, String decoder) {
+		HuffProcessor hp = new HuffProcessor();
+		hp.setDecodeMode(decoder.equals("tree") ? HuffProcessor.DECODE_TREE
+				: decoder.equals("automaton") ? HuffProcessor.DECODE_AUTOMATON
+				: decoder.equals("multi") ? HuffProcessor.DECODE_MULTI : HuffProcessor.DECODE_TABLE);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 * data.length);
+		hp.decompress(new BitInputStream(new ByteArrayInputStream(data)), new BitOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public long readBits(byte[] data, int width) {
+		BitInputStream in = new BitInputStream(new ByteArrayInputStream(data));
+		long sum = 0;
+		while (true) {
+			int value = in.readBits(width);
+			if (value == -1) break;
+			sum += value;
+		}
+		return sum;
+	}
+
+	@Override
+	public byte[] writeBits(int[] values, int width) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(values.length * width / 8 + 8);
+		BitOutputStream out = new BitOutputStream(bytes);
+		for (int value : values) {
+			out.writeBits(width, value);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public byte[] writeCodes(int[] values, int width) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(values.length * width / 8 + 8);
+		BitOutputStream out = new BitOutputStream(bytes);
+		CodeWriter writer = new CodeWriter(out);
+		long mask = (1L << width) - 1;
+		for (int value : values) {
+			writer.write(value & mask, width);
+		}
+		writer.close();
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static int format(String name) {
+		switch (name) {
+			case "tree": return HuffProcessor.HUFF_TREE;
+			case "canon": return HuffProcessor.HUFF_CANON;
+			case "blocks": return HuffProcessor.HUFF_BLOCKS;
+			case "context": return HuffProcessor.HUFF_CONTEXT;
+			default: throw new IllegalArgumentException("unknown format " + name);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package huffbench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BitInputStream.readBits, BitOutputStream.writeBits and the CodeWriter
+ * of compress on 4MB of random bits, width bits per call. Run with
+ * -prof gc to see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitStreamBenchmark {
+
+	private static final int SIZE = 1 << 22;
+
+	@Param({"1", "3", "8", "12", "17", "32"})
+	public int width;
+
+	private HuffTarget target;
+	private byte[] data;
+	private int[] values;
+
+	@Setup
+	public void create() {
+		target = HuffTarget.load();
+		Random random = new Random(201);
+		data = new byte[SIZE];
+		random.nextBytes(data);
+		values = new int[SIZE * 8 / width];
+		for (int k = 0; k < values.length; k++) {
+			values[k] = random.nextInt();
+		}
+	}
+
+	@Benchmark
+	public long readBits(Bytes bytes) {
+		bytes.add(data.length);
+		return target.readBits(data, width);
+	}
+
+	@Benchmark
+	public byte[] writeBits(Bytes bytes) {
+		bytes.add(SIZE);
+		return target.writeBits(values, width);
+	}
+
+	@Benchmark
+	public byte[] writeCodes(Bytes bytes) {
+		bytes.add(SIZE);
+		return target.writeCodes(values, width);
+	}
+}
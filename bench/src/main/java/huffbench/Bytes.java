@@ -0,0 +1,27 @@
+package huffbench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts megabytes of uncompressed data processed, reported by JMH
+ * next to the operation rate as MB/s
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Bytes {
+
+	public double megabytes;
+
+	@Setup(Level.Iteration)
+	public void clear() {
+		megabytes = 0;
+	}
+
+	public void add(int bytes) {
+		megabytes += bytes / 1e6;
+	}
+}
@@ -0,0 +1,64 @@
+package huffbench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HuffProcessor.compress and decompress of each file in data, as
+ * ProcessorBenchmark, in the formats that are always decoded the same
+ * way: blocks are decoded with tables, context codes with tables and
+ * adaptive codes by their own tree, whatever the decode mode, so each
+ * is decompressed once rather than once per decoder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatBenchmark {
+
+	@Param({"kjv10.txt", "ecoli.txt", "monarch.tif", "mtblanc.jpg", "melville.txt",
+			"twain.txt", "m1.tif", "mandrill.tif", "small.txt", "h1.txt", "h2.txt"})
+	public String file;
+
+	@Param({"blocks", "blocks4", "blockslsb", "context", "adaptive"})
+	public String format;
+
+	private HuffTarget target;
+	private byte[] original;
+	private byte[] compressed;
+
+	@Setup
+	public void load() throws IOException {
+		target = HuffTarget.load();
+		original = Files.readAllBytes(Paths.get(System.getProperty("huff.data", "data"), file));
+		compressed = target.compress(original, format);
+	}
+
+	@Benchmark
+	public byte[] compress(Bytes bytes) {
+		bytes.add(original.length);
+		return target.compress(original, format);
+	}
+
+	@Benchmark
+	public byte[] decompress(Bytes bytes) {
+		bytes.add(original.length);
+		return target.decompress(compressed, "table");
+	}
+}
@@ -0,0 +1,60 @@
+package huffbench;
+
+/**
+ * The operations benchmarked. HuffProcessor and the bit streams are in
+ * the default package, which code in a named package (as JMH requires
+ * of benchmarks) can't refer to, so they are called through this
+ * interface implemented by HuffTargetImpl in the default package.
+ */
+public interface HuffTarget {
+
+	/**
+	 * Compress data in memory
+	 * @param format is "tree", "canon", "canon11" (canonical codes of
+	 * at most 11 bits), "canon1" (codes written one symbol at a time
+	 * instead of by pairs), "blocks", "blocks4" (blocks of 4 interleaved
+	 * sub-streams), "blockslsb" (blocks coded least significant bit
+	 * first), "context" (order-1 context codes) or "adaptive"
+	 * @return the compressed bytes
+	 */
+	byte[] compress(byte[] data, String format);
+
+	/**
+	 * Decompress data in memory
+	 * @param decoder is "tree", "table", "automaton" or "multi"
+	 * @return the decompressed bytes
+	 */
+	byte[] decompress(byte[] data, String decoder);
+
+	/**
+	 * Read all of data width bits at a time with BitInputStream.readBits
+	 * @return sum of the values read
+	 */
+	long readBits(byte[] data, int width);
+
+	/**
+	 * Write the right-most width bits of each value with
+	 * BitOutputStream.writeBits
+	 * @return the bytes written
+	 */
+	byte[] writeBits(int[] values, int width);
+
+	/**
+	 * Write the right-most width bits of each value with the unchecked
+	 * CodeWriter used by compress
+	 * @return the bytes written
+	 */
+	byte[] writeCodes(int[] values, int width);
+
+	/**
+	 * Returns the implementation in the default package
+	 */
+	static HuffTarget load() {
+		try {
+			return (HuffTarget) Class.forName("HuffTargetImpl").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
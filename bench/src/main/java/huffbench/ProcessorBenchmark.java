@@ -0,0 +1,77 @@
+package huffbench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HuffProcessor.compress and decompress of each file in data, in
+ * memory so that disk speed doesn't count, in the formats decoded with
+ * a tree: each is decompressed with every decode mode. Formats whose
+ * decoding doesn't depend on the decode mode are measured by
+ * FormatBenchmark. The data directory is
+ * taken from the huff.data property, data by default, so run from
+ * the top directory or pass -jvmArgs -Dhuff.data=path. Run with
+ * -prof gc to see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessorBenchmark {
+
+	@Param({"kjv10.txt", "ecoli.txt", "monarch.tif", "mtblanc.jpg", "melville.txt",
+			"twain.txt", "m1.tif", "mandrill.tif", "small.txt", "h1.txt", "h2.txt"})
+	public String file;
+
+	@Param({"canon", "canon1", "canon11", "tree"})
+	public String format;
+
+	private HuffTarget target;
+	private byte[] original;
+	private byte[] compressed;
+
+	@Setup
+	public void load() throws IOException {
+		target = HuffTarget.load();
+		original = Files.readAllBytes(Paths.get(System.getProperty("huff.data", "data"), file));
+		compressed = target.compress(original, format);
+	}
+
+	@Benchmark
+	public byte[] compress(Bytes bytes) {
+		bytes.add(original.length);
+		return target.compress(original, format);
+	}
+
+	@Benchmark
+	public byte[] decompress(Decoder decoder, Bytes bytes) {
+		bytes.add(original.length);
+		return target.decompress(compressed, decoder.decoder);
+	}
+
+	/**
+	 * The decoder used, a separate state so compress isn't
+	 * measured once per decoder
+	 */
+	@State(Scope.Benchmark)
+	public static class Decoder {
+		@Param({"table", "tree", "automaton", "multi"})
+		public String decoder;
+	}
+}
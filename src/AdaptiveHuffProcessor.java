@@ -0,0 +1,257 @@
+import java.util.Arrays;
+
+/**
+ * One-pass adaptive Huffman coding (the FGK algorithm). Compressor and
+ * decompressor start from the same empty tree and update it in the same
+ * way after every symbol, so no counting pass and no header are needed
+ * and the input is read exactly once. A symbol not yet seen is written
+ * as the code of the NYT (not yet transmitted) leaf followed by the
+ * symbol in 9 bits; PSEUDO_EOF is sent that way to end the data.
+ * <P>
+ * The tree is stored in arrays indexed by the node number of the
+ * sibling property: weights never decrease as node numbers increase and
+ * the root has the highest number. Memory use is constant. When the
+ * root weight reaches RESET_WEIGHT, both sides start over from an empty
+ * tree so weights can't overflow however long the input is.
+ * <P>
+ * The compressed file starts with HuffProcessor.HUFF_ADAPTIVE, so
+ * HuffProcessor.decompress reads it too.
+ */
+
+public class AdaptiveHuffProcessor {
+
+	public static final int RESET_WEIGHT = 1 << 30;
+
+	private static final int SYMBOL_BITS = HuffProcessor.BITS_PER_WORD + 1;
+	private static final int ROOT = 2 * (HuffProcessor.ALPH_SIZE + 1);
+	private static final int NYT = -1;
+	private static final int INTERNAL = -2;
+
+	private final int myDebugLevel;
+	private final int myResetWeight;
+
+	private final int[] myWeight = new int[ROOT + 1];
+	private final int[] myParent = new int[ROOT + 1];
+	private final int[] myLeft = new int[ROOT + 1];
+	private final int[] myRight = new int[ROOT + 1];
+	private final int[] mySymbol = new int[ROOT + 1];
+	private final int[] myLeaf = new int[HuffProcessor.ALPH_SIZE + 1];
+	private final int[] myPath = new int[ROOT + 1];
+	private int myNYT, myNext;
+
+	public AdaptiveHuffProcessor() {
+		this(0);
+	}
+
+	public AdaptiveHuffProcessor(int debug) {
+		this(debug, RESET_WEIGHT);
+	}
+
+	/**
+	 * Construct a processor that starts over when the root weight
+	 * reaches resetWeight rather than RESET_WEIGHT, so that tests can
+	 * restart several times in a short input. Data must be decompressed
+	 * with the resetWeight it was compressed with.
+	 * @param debug is the debug level
+	 * @param resetWeight is the root weight at which the tree is reset
+	 */
+	AdaptiveHuffProcessor(int debug, int resetWeight) {
+		myDebugLevel = debug;
+		myResetWeight = resetWeight;
+	}
+
+	/**
+	 * Compresses a file in one pass. Process must be reversible and
+	 * loss-less.
+	 *
+	 * @param in
+	 *            Buffered bit stream of the file to be compressed.
+	 * @param out
+	 *            Buffered bit stream writing to the output file.
+	 */
+	public void compress(BitInputStream in, BitOutputStream out) {
+		out.writeBits(HuffProcessor.BITS_PER_INT, HuffProcessor.HUFF_ADAPTIVE);
+		initialize();
+		while (true) {
+			int value = in.readBits(HuffProcessor.BITS_PER_WORD);
+			if (value == -1) break;
+			encode(value, out);
+		}
+		encode(HuffProcessor.PSEUDO_EOF, out);
+		out.close();
+	}
+
+	/**
+	 * Decompresses a file written by compress. Output file must be
+	 * identical bit-by-bit to the original.
+	 *
+	 * @param in
+	 *            Buffered bit stream of the file to be decompressed.
+	 * @param out
+	 *            Buffered bit stream writing to the output file.
+	 */
+	public void decompress(BitInputStream in, BitOutputStream out) {
+		int bits = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (bits != HuffProcessor.HUFF_ADAPTIVE) {
+			throw new HuffException("Illegal header starts with"+bits);
+		}
+		decodeSymbols(in, out);
+		out.close();
+	}
+
+	/**
+	 * Decode symbols following the HUFF_ADAPTIVE magic number up to
+	 * PSEUDO_EOF
+	 */
+	void decodeSymbols(BitInputStream in, BitOutputStream out) {
+		initialize();
+		byte[] chunk = new byte[HuffProcessor.CHUNK_SIZE];
+		int count = 0;
+		while (true) {
+			int node = ROOT;
+			while (mySymbol[node] == INTERNAL) {
+				int bit = in.readBits(1);
+				if (bit == -1) {
+					throw new HuffException("bad input, no PSEUDO_EOF");
+				}
+				node = bit == 0 ? myLeft[node] : myRight[node];
+			}
+			int symbol = mySymbol[node];
+			if (symbol == NYT) {
+				symbol = in.readBits(SYMBOL_BITS);
+				if (symbol == -1 || symbol > HuffProcessor.PSEUDO_EOF || myLeaf[symbol] != -1) {
+					throw new HuffException("bad input, illegal new symbol " + symbol);
+				}
+			}
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				break;
+			}
+			chunk[count++] = (byte) symbol;
+			if (count == chunk.length) {
+				out.writeBytes(chunk, 0, count);
+				count = 0;
+			}
+			update(symbol);
+		}
+		out.writeBytes(chunk, 0, count);
+	}
+
+	/**
+	 * Start from a tree with just the NYT leaf
+	 */
+	private void initialize() {
+		Arrays.fill(myLeaf, -1);
+		myNYT = ROOT;
+		myNext = ROOT - 1;
+		myWeight[ROOT] = 0;
+		myParent[ROOT] = -1;
+		mySymbol[ROOT] = NYT;
+		if (myDebugLevel >= HuffProcessor.DEBUG_HIGH) {
+			System.out.println("adaptive tree reset");
+		}
+	}
+
+	/**
+	 * Write the code of symbol, then update the tree
+	 */
+	private void encode(int symbol, BitOutputStream out) {
+		int node = myLeaf[symbol] == -1 ? myNYT : myLeaf[symbol];
+		int length = 0;
+		while (node != ROOT) {
+			int parent = myParent[node];
+			myPath[length++] = myRight[parent] == node ? 1 : 0;
+			node = parent;
+		}
+		while (length > 0) {
+			int count = Math.min(length, HuffProcessor.BITS_PER_INT);
+			int value = 0;
+			for (int k = 0; k < count; k++) {
+				value = (value << 1) | myPath[--length];
+			}
+			out.writeBits(count, value);
+		}
+		if (myLeaf[symbol] == -1) {
+			out.writeBits(SYMBOL_BITS, symbol);
+		}
+		if (symbol != HuffProcessor.PSEUDO_EOF) {
+			update(symbol);
+		}
+	}
+
+	/**
+	 * Add one to the weight of symbol, first giving it a leaf split off
+	 * the NYT leaf if it is new. Going up from the leaf, each node is
+	 * swapped with the highest numbered node of the same weight, other
+	 * than its parent, before its weight is incremented; this keeps
+	 * the sibling property.
+	 */
+	private void update(int symbol) {
+		if (myWeight[ROOT] >= myResetWeight) {
+			initialize();
+		}
+		int node = myLeaf[symbol];
+		if (node == -1) {
+			int internal = myNYT;
+			int leaf = myNext--;
+			int nyt = myNext--;
+			mySymbol[internal] = INTERNAL;
+			myLeft[internal] = nyt;
+			myRight[internal] = leaf;
+			myParent[leaf] = internal;
+			myParent[nyt] = internal;
+			myWeight[leaf] = 0;
+			myWeight[nyt] = 0;
+			mySymbol[leaf] = symbol;
+			mySymbol[nyt] = NYT;
+			myLeaf[symbol] = leaf;
+			myNYT = nyt;
+			node = leaf;
+		}
+		while (node != -1) {
+			int leader = node;
+			while (leader < ROOT && myWeight[leader + 1] == myWeight[node]) {
+				leader++;
+			}
+			if (leader == myParent[node]) {
+				leader--;
+			}
+			if (leader != node) {
+				swap(node, leader);
+				node = leader;
+			}
+			myWeight[node]++;
+			node = myParent[node];
+		}
+	}
+
+	/**
+	 * Exchange the subtrees numbered a and b, which have the same
+	 * weight; each number keeps its parent
+	 */
+	private void swap(int a, int b) {
+		int left = myLeft[a];
+		int right = myRight[a];
+		int symbol = mySymbol[a];
+		myLeft[a] = myLeft[b];
+		myRight[a] = myRight[b];
+		mySymbol[a] = mySymbol[b];
+		myLeft[b] = left;
+		myRight[b] = right;
+		mySymbol[b] = symbol;
+		relink(a);
+		relink(b);
+	}
+
+	private void relink(int node) {
+		if (mySymbol[node] == INTERNAL) {
+			myParent[myLeft[node]] = node;
+			myParent[myRight[node]] = node;
+		}
+		else if (mySymbol[node] == NYT) {
+			myNYT = node;
+		}
+		else {
+			myLeaf[mySymbol[node]] = node;
+		}
+	}
+}
@@ -12,72 +12,200 @@
 import java.io.*;
 import java.nio.*;
 import java.nio.channels.*;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
 
 public class BitInputStream extends InputStream {
 	
 	private static final int BYTE_SIZE = 8;
 	private static final int INT_SIZE = 32;
-	private static final int BIT_BUFFER_SIZE = 8;
-	private static final int BUFFER_SIZE = 8192;
+	private static final int LONG_SIZE = 64;
+	private static final int LONG_BYTES = 8;
 	
-	private static final long bitMask[] = { 0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff, 0x1ff, 0x3ff, 0x7ff,
-			0xfff, 0x1fff, 0x3fff, 0x7fff, 0xffff, 0x1ffff, 0x3ffff, 0x7ffff, 0xfffff, 0x1fffff, 0x3fffff, 0x7fffff,
-			0xffffff, 0x1ffffff, 0x3ffffff, 0x7ffffff, 0xfffffff, 0x1fffffff, 0x3fffffff, 0x7fffffff, 0xffffffffl,
-			0x1ffffffffl, 0x3ffffffffl, 0x7ffffffffl, 0xfffffffffl, 0x1fffffffffl, 0x3fffffffffl, 0x7fffffffffl,
-			0xffffffffffl, 0x1ffffffffffl, 0x3ffffffffffl, 0x7ffffffffffl, 0xfffffffffffl, 0x1fffffffffffl,
-			0x3fffffffffffl, 0x7fffffffffffl, 0xffffffffffffl, 0x1ffffffffffffl, 0x3ffffffffffffl, 0x7ffffffffffffl,
-			0xfffffffffffffl, 0x1fffffffffffffl, 0x3fffffffffffffl, 0x7fffffffffffffl, 0xffffffffffffffl,
-			0x1ffffffffffffffl, 0x3ffffffffffffffl, 0x7ffffffffffffffl, 0xfffffffffffffffl, 0x1fffffffffffffffl,
-			0x3fffffffffffffffl, 0x7fffffffffffffffl, 0xffffffffffffffffl };
+	/**
+	 * Number of bits refill() makes available unless the stream ends
+	 */
+	public static final int REFILL_BITS = LONG_SIZE - LONG_BYTES;
+	private static final int BUFFER_SIZE = 8192;
+	static final int MAP_SIZE = 1 << 30;
 	
+	private File file;
 	private InputStream source;
 	private ReadableByteChannel input;
 	private ByteBuffer buffer;
-	private int bitsRead, available, limit;
+	private long bitsRead;
+	private int available;
 	private long bitBuffer;
 	
+	private FileChannel channel;
+	private int arrayLength = -1;
+	private MappedByteBuffer firstMap;
+	private long mapOffset, mapEnd;
+	private int mapSize = MAP_SIZE;
+	
 	public BitInputStream(String filePath) {
 		this(new File(filePath));
 	}
 	
+	/**
+	 * Construct stream reading from a file. reset() re-opens the
+	 * file, so the file is never held in memory.
+	 * @param fileSource is the file read
+	 */
 	public BitInputStream(File fileSource) {
-		try {
-			initialize(new FileInputStream(fileSource));
+		this(fileSource, false);
+	}
+	
+	/**
+	 * Construct stream reading from a file, optionally memory-mapping
+	 * the file. A mapped file is read directly from the mapping, in
+	 * segments of up to 1GB, and reset() just rewinds the mapping.
+	 * @param fileSource is the file read
+	 * @param mapped is true to map the file with FileChannel.map
+	 */
+	public BitInputStream(File fileSource, boolean mapped) {
+		file = fileSource;
+		if (mapped) {
+			initializeMapped();
 		}
-		catch (FileNotFoundException fnf) {
-			throw new RuntimeException(fnf);
+		else {
+			initialize(open(fileSource));
 		}
 	}
 	
+	/**
+	 * Construct stream reading from a memory-mapped file
+	 * @param path is the path of the file read
+	 */
+	public BitInputStream(Path path) {
+		this(path.toFile(), true);
+	}
+	
+	/**
+	 * Construct stream reading from a memory-mapped file in segments of
+	 * mapSize bytes rather than 1GB, so that tests can read across
+	 * segments of a small file
+	 * @param path is the path of the file read
+	 * @param mapSize is the number of bytes mapped at a time
+	 */
+	BitInputStream(Path path, int mapSize) {
+		file = path.toFile();
+		this.mapSize = mapSize;
+		initializeMapped();
+	}
+	
+	/**
+	 * Construct stream reading from in. reset() is supported only if
+	 * in is a ByteArrayInputStream, whose bytes are already in memory;
+	 * other streams, even those supporting mark/reset, are read once,
+	 * never marked and never buffered in full.
+	 * @param in is the source of bits
+	 */
 	public BitInputStream(InputStream in) {
+		if (in instanceof ByteArrayInputStream) {
+			arrayLength = ((ByteArrayInputStream) in).available();
+		}
 		initialize(in);
 	}
 	
+	private static InputStream open(File fileSource) {
+		try {
+			return new FileInputStream(fileSource);
+		}
+		catch (FileNotFoundException fnf) {
+			throw new RuntimeException(fnf);
+		}
+	}
+	
 	private void initialize(InputStream in) {
-		source = new BufferedInputStream(in);
-		source.mark(Integer.MAX_VALUE);
-		bitsRead = available = 0;
+		source = in;
+		bitsRead = 0;
+		available = 0;
 		bitBuffer = 0;
-		limit = BUFFER_SIZE;
 		input = Channels.newChannel(source);
 		buffer = ByteBuffer.allocate(BUFFER_SIZE);
 		buffer.position(BUFFER_SIZE);
 	}
 	
-	public int bitsRead() {
+	private void initializeMapped() {
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			mapEnd = channel.size();
+			rewindMapped();
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+	
+	private void rewindMapped() {
+		bitsRead = 0;
+		available = 0;
+		bitBuffer = 0;
+		mapOffset = 0;
+		buffer = ByteBuffer.allocate(0);
+	}
+	
+	/**
+	 * Returns number of bits returned by readBits since this stream
+	 * was constructed or last reset
+	 * @return number of bits read
+	 */
+	public long bitsRead() {
 		return bitsRead;
 	}
 	
+	/**
+	 * Returns the position in the stream of the byte holding the next
+	 * bit to be read, i.e., the number of whole bytes read
+	 * @return byte position of the next read
+	 */
+	public long bytePosition() {
+		return bitsRead / BYTE_SIZE;
+	}
+	
+	/**
+	 * Returns the file this stream reads
+	 * @return the file, null if this stream was constructed from
+	 * an InputStream
+	 */
+	public File file() {
+		return file;
+	}
+	
+	/**
+	 * Returns true if reset() can rewind this stream, i.e., if it reads
+	 * a file or a ByteArrayInputStream.
+	 */
+	@Override
+	public boolean markSupported() {
+		return file != null || arrayLength >= 0;
+	}
+	
+	/**
+	 * Rewind to the start of the stream, re-opening the file if this
+	 * stream reads a file.
+	 * @throws HuffException if the stream can't be rewound
+	 */
 	public void reset() {
 		try {
-			source.reset();
-			source.mark(Integer.MAX_VALUE);
-			bitsRead = available = 0;
-			bitBuffer = 0;
-			limit = BUFFER_SIZE;
-			input = Channels.newChannel(source);
-			buffer = ByteBuffer.allocate(BUFFER_SIZE);
-			buffer.position(BUFFER_SIZE);
+			if (channel != null) {
+				rewindMapped();
+			}
+			else if (file != null) {
+				source.close();
+				initialize(open(file));
+			}
+			else if (arrayLength >= 0) {
+				// back to the array's mark, at or before where this stream started
+				source.reset();
+				source.skip(source.available() - arrayLength);
+				initialize(source);
+			}
+			else {
+				throw new HuffException("stream can't be reset, read it once or read from a file");
+			}
 		}
 		catch (IOException io) {
 			throw new RuntimeException(io);
@@ -86,6 +214,10 @@ public class BitInputStream extends InputStream {
 	
 	public void close() {
 		try {
+			if (channel != null) {
+				channel.close();
+				return;
+			}
 			source.close();
 			input.close();
 		}
@@ -104,52 +236,198 @@ public class BitInputStream extends InputStream {
 		if (numBits > INT_SIZE || numBits < 1) {
 			throw new RuntimeException("Illegal argument: numBits must be on [1, 32]");
 		}
-			
-		int value = 0;
 		
-		if (numBits > available) {
-			value = (int) bitBuffer;
-			numBits -= available;
-			value <<= numBits;
-			if (!fillBitBuffer()) {
-				return -1;
-			}
-		}
-		
-		if (numBits > available) {
+		if (available < numBits && refill(numBits) < numBits) {
 			return -1;
 		}
 		
-		value |= bitBuffer >>> (available - numBits);
-		bitBuffer &= bitMask[available - numBits];
 		available -= numBits;
+		int value = (int) (bitBuffer >>> available);
+		bitBuffer &= (1L << available) - 1;
 		bitsRead += numBits;
 		return value;
 	}
 	
-	private boolean fillBitBuffer() {
-		if (!buffer.hasRemaining()) {
-			if (!fillBuffer()) {
-				return false;
+	/**
+	 * Reads len bytes into b, 8 bits each, as readBits(8) would. When
+	 * the stream is at a byte boundary the bytes are copied out of the
+	 * buffer in bulk, or read straight from the input if they would
+	 * fill the buffer, instead of going through the bit buffer.
+	 * @param b is where bytes read are stored
+	 * @param off is the index in b of the first byte read
+	 * @param len is the number of bytes to read
+	 * @return the number of bytes read, less than len only if the
+	 * stream ends first
+	 */
+	public int readBytes(byte[] b, int off, int len) {
+		Objects.checkFromIndexSize(off, len, b.length);
+		int count = 0;
+		if (bitsRead % BYTE_SIZE != 0) {
+			for (; count < len; count++) {
+				int value = readBits(BYTE_SIZE);
+				if (value == -1) break;
+				b[off + count] = (byte) value;
 			}
+			return count;
 		}
 		
-		available = BYTE_SIZE * Math.min(BIT_BUFFER_SIZE, limit - buffer.position());
-		bitBuffer = buffer.getLong();
-		bitBuffer >>>= (int) Math.pow(2, BIT_BUFFER_SIZE) - available;
-		return true;
+		for (; count < len && available >= BYTE_SIZE; count++) {
+			available -= BYTE_SIZE;
+			b[off + count] = (byte) (bitBuffer >>> available);
+		}
+		bitBuffer &= (1L << available) - 1;
+		while (count < len) {
+			if (!buffer.hasRemaining()) {
+				if (channel == null && len - count >= buffer.capacity()) {
+					count += readFully(b, off + count, len - count);
+					break;
+				}
+				if (!fillBuffer()) break;
+			}
+			int bytes = Math.min(len - count, buffer.remaining());
+			buffer.get(b, off + count, bytes);
+			count += bytes;
+		}
+		bitsRead += (long) BYTE_SIZE * count;
+		return count;
+	}
+	
+	/**
+	 * Read from the input straight into b until len bytes are read or
+	 * the input ends
+	 * @return the number of bytes read
+	 */
+	private int readFully(byte[] b, int off, int len) {
+		ByteBuffer target = ByteBuffer.wrap(b, off, len);
+		try {
+			while (target.hasRemaining()) {
+				if (input.read(target) == -1) break;
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		return target.position() - off;
+	}
+	
+	/**
+	 * Move whole bytes of input into the 64-bit bit buffer until it
+	 * holds at least REFILL_BITS bits or the input ends. Bits are not
+	 * consumed, so peekBits can look at them before skipBits does.
+	 * @return number of bits available, less than REFILL_BITS only
+	 * near the end of the stream
+	 */
+	public int refill() {
+		return refill(REFILL_BITS);
+	}
+	
+	/**
+	 * Move whole bytes of input into the 64-bit bit buffer as refill()
+	 * does, but read from the underlying stream only while fewer than
+	 * numBits bits are available. Once numBits are, only bytes already
+	 * read are moved, so a live stream such as a pipe or socket isn't
+	 * waited on for bits that aren't needed yet.
+	 * @param numBits is the number of bits needed, at most REFILL_BITS
+	 * @return number of bits available, less than numBits only at the
+	 * end of the stream
+	 */
+	public int refill(int numBits) {
+		while (available < REFILL_BITS) {
+			if (buffer.remaining() >= LONG_BYTES) {
+				int bytes = (LONG_SIZE - 1 - available) / BYTE_SIZE;
+				int position = buffer.position();
+				long next = buffer.getLong(position);
+				buffer.position(position + bytes);
+				bitBuffer = (bitBuffer << (BYTE_SIZE * bytes)) | (next >>> (LONG_SIZE - BYTE_SIZE * bytes));
+				available += BYTE_SIZE * bytes;
+				break;
+			}
+			if (buffer.hasRemaining()) {
+				bitBuffer = (bitBuffer << BYTE_SIZE) | (buffer.get() & 0xff);
+				available += BYTE_SIZE;
+			}
+			else if (available >= numBits || !fillBuffer()) {
+				break;
+			}
+		}
+		return available;
+	}
+	
+	/**
+	 * Make sure at least numBits bits are available to peekBits,
+	 * refilling only when fewer are
+	 * @param numBits is at most REFILL_BITS
+	 * @return true if numBits bits are available, false if the
+	 * stream ends first
+	 */
+	public boolean ensureBits(int numBits) {
+		return available >= numBits || refill(numBits) >= numBits;
+	}
+	
+	/**
+	 * Returns number of bits read from the input but not yet consumed
+	 */
+	public int bitsAvailable() {
+		return available;
+	}
+	
+	/**
+	 * Returns the next numBits bits without consuming them. Arguments
+	 * are not checked: call ensureBits or refill first; if fewer bits
+	 * are available the missing low-order bits are 0.
+	 * @param numBits is on [1, 32]
+	 * @return the bits, as readBits would return them
+	 */
+	public int peekBits(int numBits) {
+		int shift = available - numBits;
+		return (int) (shift >= 0 ? bitBuffer >>> shift : bitBuffer << -shift);
+	}
+	
+	/**
+	 * Consume bits looked at with peekBits
+	 * @param numBits is at most bitsAvailable(), not checked
+	 */
+	public void skipBits(int numBits) {
+		available -= numBits;
+		bitBuffer &= (1L << available) - 1;
+		bitsRead += numBits;
 	}
 	
 	private boolean fillBuffer() {
+		if (channel != null) {
+			return fillMappedBuffer();
+		}
 		try {
 			buffer.clear();
-			limit = input.read(buffer);
+			int read = input.read(buffer);
 			buffer.flip();
-			if (limit == -1) {
-				return false;
+			return read != -1;
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+	
+	/**
+	 * Map the next segment of the file. The first segment stays mapped
+	 * so reset() doesn't map it again.
+	 */
+	private boolean fillMappedBuffer() {
+		if (mapOffset >= mapEnd) {
+			return false;
+		}
+		try {
+			if (mapOffset == 0 && firstMap != null) {
+				buffer = firstMap;
+				buffer.rewind();
+			}
+			else {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapOffset, Math.min(mapSize, mapEnd - mapOffset));
+				if (mapOffset == 0) {
+					firstMap = (MappedByteBuffer) buffer;
+				}
 			}
-			bitsRead += 8*limit;
-			buffer.limit(limit + (BIT_BUFFER_SIZE - limit % BIT_BUFFER_SIZE) % BIT_BUFFER_SIZE);
+			mapOffset += buffer.limit();
 			return true;
 		}
 		catch (IOException io) {
@@ -17,13 +17,23 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class BitOutputStream extends OutputStream {
 	
 	public static final int BYTE_SIZE = 8;
 	private static final int INT_SIZE = 32;
+	private static final int LONG_BYTES = 8;
 	private static final int BUFFER_SIZE = 8192;
+	public static final int DEFAULT_CHANNEL_BUFFER_SIZE = 1 << 16;
 	
 	private static final long[] bitMask = { 0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff, 0x1ff, 0x3ff, 0x7ff,
 			0xfff, 0x1fff, 0x3fff, 0x7fff, 0xffff, 0x1ffff, 0x3ffff, 0x7ffff, 0xfffff, 0x1fffff, 0x3fffff, 0x7fffff,
@@ -36,11 +46,16 @@ public class BitOutputStream extends OutputStream {
 			0x3fffffffffffffffl, 0x7fffffffffffffffl, 0xffffffffffffffffl };
 	
 	private OutputStream source;
-	private int bitsWritten, available;
+	private long bitsWritten;
+	private int available;
 	private long bitBuffer;
 	private ByteBuffer buffer;
 	private WritableByteChannel output;
 	
+	private ByteBuffer spare;
+	private ExecutorService writer;
+	private Future<?> pending;
+	
 	/**
 	 * Construct stream from a path to a file
 	 * @param filePath is the path to a file to be written to
@@ -65,6 +80,52 @@ public class BitOutputStream extends OutputStream {
 	}
 	
 
+	/**
+	 * Construct stream writing directly to a FileChannel with a direct
+	 * buffer of DEFAULT_CHANNEL_BUFFER_SIZE bytes
+	 * @param path is the path of the file written
+	 * @throws RuntimeException if the file can't be open
+	 */
+	public BitOutputStream(Path path) {
+		this(path.toFile(), DEFAULT_CHANNEL_BUFFER_SIZE, false);
+	}
+	
+	/**
+	 * Construct stream writing directly to a FileChannel. With double
+	 * buffering, a full buffer is written to the channel by a background
+	 * thread while bits are put in the other buffer.
+	 * @param fileSource is the file written
+	 * @param bufferSize is the size in bytes of each direct buffer,
+	 * rounded up to a multiple of 8
+	 * @param doubleBuffered is true to write and fill buffers concurrently
+	 * @throws RuntimeException if the file can't be open
+	 */
+	public BitOutputStream(File fileSource, int bufferSize, boolean doubleBuffered) {
+		if (bufferSize < 1) {
+			throw new RuntimeException("Illegal argument: bufferSize must be positive");
+		}
+		try {
+			output = FileChannel.open(fileSource.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		bitsWritten = 0;
+		available = 64;
+		bitBuffer = 0;
+		int size = (bufferSize + 7) / 8 * 8;
+		buffer = ByteBuffer.allocateDirect(size);
+		if (doubleBuffered) {
+			spare = ByteBuffer.allocateDirect(size);
+			writer = Executors.newSingleThreadExecutor(task -> {
+				Thread thread = new Thread(task, "BitOutputStream writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
 	/**
 	 * Create a BitOuputStream from an outputstream
 	 * @param out is where bits will be written/output
@@ -87,17 +148,28 @@ public class BitOutputStream extends OutputStream {
 	 * of this BitOUtputStream.
 	 * @return number of bits written
 	 */
-	public int bitsWritten() {
+	public long bitsWritten() {
 		return bitsWritten;
 	}
 	
+	/**
+	 * Returns the position in the stream of the byte the next bit
+	 * is written to, i.e., the number of whole bytes written
+	 * @return byte position of the next write
+	 */
+	public long bytePosition() {
+		return bitsWritten / BYTE_SIZE;
+	}
+	
 	/**
 	 * Flush any unwritten bits, called when .close() is called,
-	 * but can be called explicitly as well.
+	 * but can be called explicitly as well. A partial last byte is
+	 * padded with 0 bits.
 	 */
 	public void flush() {
 		emptyBitBufferExact();
 		emptyBuffer();
+		waitForWriter();
 	}
 	
 	/**
@@ -107,8 +179,13 @@ public class BitOutputStream extends OutputStream {
 	public void close() {
 		try {
 			flush();
+			if (writer != null) {
+				writer.shutdown();
+			}
 			output.close();
-			source.close();
+			if (source != null) {
+				source.close();
+			}
 		}
 		catch (IOException io) {
 			throw new RuntimeException(io);
@@ -151,8 +228,72 @@ public class BitOutputStream extends OutputStream {
 		available -= numBits;
 	}
 	
+	/**
+	 * Writes len bytes of b, 8 bits each, as writeBits(8, ...) would.
+	 * When the stream is at a byte boundary the bytes are copied into
+	 * the buffer in bulk, or written straight to the channel if they
+	 * fill the buffer, instead of going through the bit buffer.
+	 * @param b is the source of bytes written
+	 * @param off is the index in b of the first byte written
+	 * @param len is the number of bytes written
+	 */
+	public void writeBytes(byte[] b, int off, int len) {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (available % BYTE_SIZE != 0) {
+			int end = off + len;
+			for (; off + Integer.BYTES <= end; off += Integer.BYTES) {
+				writeBits(INT_SIZE, (b[off] << 24) | ((b[off + 1] & 0xff) << 16)
+						| ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff));
+			}
+			for (; off < end; off++) {
+				writeBits(BYTE_SIZE, b[off] & 0xff);
+			}
+			return;
+		}
+		
+		emptyBitBufferExact();
+		bitsWritten += (long) BYTE_SIZE * len;
+		if (writer == null && len >= buffer.capacity()) {
+			emptyBuffer();
+			writeFully(ByteBuffer.wrap(b, off, len));
+			return;
+		}
+		while (len > 0) {
+			if (!buffer.hasRemaining()) {
+				emptyBuffer();
+			}
+			int count = Math.min(len, buffer.remaining());
+			buffer.put(b, off, count);
+			off += count;
+			len -= count;
+		}
+	}
+	
+	/**
+	 * Returns the number of bits of a partial last byte not yet written
+	 */
+	int partialBits() {
+		return (64 - available) % BYTE_SIZE;
+	}
+	
+	/**
+	 * Move the whole bytes of the bit buffer to the buffer and remove
+	 * the partialBits() bits of a partial last byte, for a CodeWriter
+	 * continuing this stream from them; they no longer count as written.
+	 * @return the bits of the partial byte, right-most
+	 */
+	long detachPartialByte() {
+		int partial = partialBits();
+		long bits = partial == 0 ? 0 : (bitBuffer >>> available) & bitMask[partial];
+		available += partial;
+		bitBuffer = available == 64 ? 0 : bitBuffer & (~0L << available);
+		emptyBitBufferExact();
+		bitsWritten -= partial;
+		return bits;
+	}
+	
 	private void emptyBitBuffer() {
-		if (!buffer.hasRemaining()) {
+		if (buffer.remaining() < LONG_BYTES) {
 			emptyBuffer();
 		}
 		
@@ -162,7 +303,7 @@ public class BitOutputStream extends OutputStream {
 	}
 	
 	private void emptyBitBufferExact() {
-		if (!buffer.hasRemaining()) {
+		if (buffer.remaining() < LONG_BYTES) {
 			emptyBuffer();
 		}
 		
@@ -171,16 +312,52 @@ public class BitOutputStream extends OutputStream {
 			bitBuffer <<= 8;
 			available += 8;
 		}
+		bitBuffer = 0;
+		available = 64;
 	}
 	
 	private void emptyBuffer() {
-		try {
-			buffer.flip();
-			output.write(buffer);
+		buffer.flip();
+		if (writer == null) {
+			writeFully(buffer);
 			buffer.clear();
+			return;
+		}
+		waitForWriter();
+		ByteBuffer full = buffer;
+		pending = writer.submit(() -> writeFully(full));
+		buffer = spare;
+		spare = full;
+		buffer.clear();
+	}
+	
+	private void writeFully(ByteBuffer data) {
+		try {
+			while (data.hasRemaining()) {
+				output.write(data);
+			}
 		}
 		catch (IOException io) {
 			throw new RuntimeException(io);
 		}
 	}
+	
+	/**
+	 * Wait until the background writer, if any, has written the
+	 * buffer handed to it
+	 */
+	private void waitForWriter() {
+		if (pending == null) return;
+		try {
+			pending.get();
+			pending = null;
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ie);
+		}
+		catch (ExecutionException ee) {
+			throw new RuntimeException(ee.getCause());
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,305 @@
+import java.util.Arrays;
+
+/**
+ * Canonical Huffman codes. Only the code length of each symbol
+ * is stored in a compressed file; codes are assigned from the lengths
+ * in the same way when compressing and decompressing, shorter codes
+ * first and symbols of equal length in increasing order.
+ * <P>
+ * The length header is a 6-bit width w followed by, for each of the
+ * ALPH_SIZE + 1 symbols, a 1-bit flag and, if the flag is set, the
+ * code length of the symbol in w bits.
+ */
+
+public class CanonicalCode {
+
+	public static final int MAX_CODE_LENGTH = 62;
+
+	private static final int WIDTH_BITS = 6;
+	private static final int SYMBOL_SHIFT = 16;
+	private static final long SYMBOL_MASK = (1 << SYMBOL_SHIFT) - 1;
+
+	/**
+	 * Compute Huffman code lengths with the in-place algorithm of Moffat
+	 * and Katajainen, using no tree. The counts of the symbols used are
+	 * sorted in increasing order into an array a. The first pass merges
+	 * left to right as a two-queue Huffman construction would: the front
+	 * of a holds the weights of internal nodes not yet merged, and is
+	 * overwritten with the index of their parent as they are. The second
+	 * pass turns parent indices into depths of internal nodes, the third
+	 * pass assigns leaf depths from the number of internal nodes at each
+	 * depth.
+	 * @param counts is the number of occurrences of each symbol
+	 * @return the code length of each symbol, 0 if its count is 0
+	 */
+	public static int[] lengthsFromCounts(int[] counts) {
+		int[] lengths = new int[counts.length];
+		long[] a = new long[counts.length];
+		int n = sortByCount(counts, a);
+		if (n < 2) {
+			return singleLengths(a, n, lengths);
+		}
+		int[] symbols = new int[n];
+		for (int k = 0; k < n; k++) {
+			symbols[k] = (int) (a[k] & SYMBOL_MASK);
+			a[k] >>>= SYMBOL_SHIFT;
+		}
+
+		a[0] += a[1];
+		int root = 0, leaf = 2;
+		for (int next = 1; next < n - 1; next++) {
+			if (leaf >= n || a[root] < a[leaf]) {
+				a[next] = a[root];
+				a[root++] = next;
+			}
+			else {
+				a[next] = a[leaf++];
+			}
+			if (leaf >= n || (root < next && a[root] < a[leaf])) {
+				a[next] += a[root];
+				a[root++] = next;
+			}
+			else {
+				a[next] += a[leaf++];
+			}
+		}
+
+		a[n - 2] = 0;
+		for (int next = n - 3; next >= 0; next--) {
+			a[next] = a[(int) a[next]] + 1;
+		}
+
+		int available = 1, used = 0, depth = 0;
+		root = n - 2;
+		int next = n - 1;
+		while (available > 0) {
+			while (root >= 0 && a[root] == depth) {
+				used++;
+				root--;
+			}
+			while (available > used) {
+				lengths[symbols[next--]] = depth;
+				available--;
+			}
+			available = 2 * used;
+			depth++;
+			used = 0;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Store the symbols with a count other than 0 in keys, each as its
+	 * count shifted left by SYMBOL_SHIFT bits or'ed with the symbol,
+	 * sorted in increasing order of count then symbol
+	 * @return the number of symbols stored
+	 */
+	private static int sortByCount(int[] counts, long[] keys) {
+		int n = 0;
+		for (int symbol = 0; symbol < counts.length; symbol++) {
+			if (counts[symbol] > 0) {
+				keys[n++] = ((long) counts[symbol] << SYMBOL_SHIFT) | symbol;
+			}
+		}
+		Arrays.sort(keys, 0, n);
+		return n;
+	}
+
+	/**
+	 * Code lengths when fewer than two symbols are used. A single
+	 * symbol gets a code of length 1 and so does another, unused,
+	 * symbol so the code is a complete prefix code.
+	 */
+	private static int[] singleLengths(long[] keys, int n, int[] lengths) {
+		if (n == 1) {
+			int symbol = (int) (keys[0] & SYMBOL_MASK);
+			lengths[symbol] = 1;
+			lengths[symbol == 0 ? 1 : 0] = 1;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Compute optimal code lengths no longer than maxLength with the
+	 * package-merge algorithm. Starting from the symbols sorted by
+	 * count, maxLength - 1 times the list so far is paired up into
+	 * packages that are merged back into the sorted symbols. The code
+	 * length of a symbol is the number of times it occurs in the first
+	 * 2n - 2 items of the last list, n being the number of symbols used.
+	 * @param counts is the number of occurrences of each symbol
+	 * @param maxLength is the maximal code length
+	 * @return the code length of each symbol, 0 if its count is 0
+	 * @throws HuffException if the symbols used can't all have codes
+	 * of at most maxLength bits
+	 */
+	public static int[] limitedLengths(int[] counts, int maxLength) {
+		int[] lengths = new int[counts.length];
+		long[] keys = new long[counts.length];
+		int n = sortByCount(counts, keys);
+		if (maxLength < 1 || maxLength > MAX_CODE_LENGTH || (n > 1 && (1L << maxLength) < n)) {
+			throw new HuffException("can't limit " + n + " codes to " + maxLength + " bits");
+		}
+		if (n < 2) {
+			return singleLengths(keys, n, lengths);
+		}
+		long[] leaves = new long[n];
+		int[] symbols = new int[n];
+		for (int k = 0; k < n; k++) {
+			leaves[k] = keys[k] >>> SYMBOL_SHIFT;
+			symbols[k] = (int) (keys[k] & SYMBOL_MASK);
+		}
+
+		// item k of list j is symbol items[j][k], or if negative the
+		// package of items 2p and 2p + 1 of list j + 1, p = -1 - items[j][k]
+		long[][] weights = new long[maxLength][];
+		int[][] items = new int[maxLength][];
+		weights[maxLength - 1] = leaves;
+		items[maxLength - 1] = symbols;
+		for (int j = maxLength - 2; j >= 0; j--) {
+			long[] below = weights[j + 1];
+			int packages = below.length / 2;
+			weights[j] = new long[n + packages];
+			items[j] = new int[n + packages];
+			int leaf = 0, pack = 0;
+			for (int k = 0; k < n + packages; k++) {
+				long packWeight = pack < packages ? below[2 * pack] + below[2 * pack + 1] : Long.MAX_VALUE;
+				if (leaf < n && leaves[leaf] <= packWeight) {
+					weights[j][k] = leaves[leaf];
+					items[j][k] = symbols[leaf++];
+				}
+				else {
+					weights[j][k] = packWeight;
+					items[j][k] = -1 - pack++;
+				}
+			}
+		}
+
+		int count = 2 * n - 2;
+		for (int j = 0; j < maxLength && count > 0; j++) {
+			int packages = 0;
+			for (int k = 0; k < count; k++) {
+				if (items[j][k] >= 0) lengths[items[j][k]]++;
+				else packages++;
+			}
+			count = 2 * packages;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Assign canonical codes to symbols with the given lengths
+	 * @param lengths is the code length of each symbol, 0 if unused
+	 * @return array indexed by symbol holding its code in the
+	 * lengths[symbol] right-most bits
+	 */
+	public static long[] codesFromLengths(int[] lengths) {
+		int maxLength = checkLengths(lengths);
+		long[] codes = new long[lengths.length];
+		long code = 0;
+		for (int len = 1; len <= maxLength; len++) {
+			for (int symbol = 0; symbol < lengths.length; symbol++) {
+				if (lengths[symbol] == len) {
+					codes[symbol] = code;
+					code++;
+				}
+			}
+			code <<= 1;
+		}
+		return codes;
+	}
+
+	/**
+	 * Returns the length right-most bits of code as a string of 0s and 1s
+	 */
+	public static String toString(long code, int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int k = length - 1; k >= 0; k--) {
+			sb.append((code >>> k) & 1);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Verify that lengths describe a complete prefix code, i.e.,
+	 * that the Kraft sum of the lengths is exactly one.
+	 * @return the maximal code length
+	 */
+	private static int checkLengths(int[] lengths) {
+		int maxLength = 0;
+		for (int len : lengths) {
+			if (len < 0 || len > MAX_CODE_LENGTH) {
+				throw new HuffException("illegal code length " + len);
+			}
+			maxLength = Math.max(maxLength, len);
+		}
+		long kraft = 0;
+		for (int len : lengths) {
+			if (len > 0) kraft += 1L << (maxLength - len);
+		}
+		if (maxLength == 0 || kraft != 1L << maxLength) {
+			throw new HuffException("code lengths are not a complete prefix code");
+		}
+		return maxLength;
+	}
+
+	/**
+	 * Write the length header for lengths to out
+	 * @param lengths is the code length of each symbol, 0 if unused
+	 * @param out is where the header is written
+	 */
+	public static void writeLengths(int[] lengths, BitOutputStream out) {
+		int maxLength = 0;
+		for (int len : lengths) {
+			maxLength = Math.max(maxLength, len);
+		}
+		int width = HuffProcessor.BITS_PER_INT - Integer.numberOfLeadingZeros(maxLength);
+		out.writeBits(WIDTH_BITS, width);
+		for (int len : lengths) {
+			if (len == 0) {
+				out.writeBits(1, 0);
+			}
+			else {
+				out.writeBits(1, 1);
+				out.writeBits(width, len);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bits writeLengths writes for lengths
+	 */
+	public static int headerBits(int[] lengths) {
+		int maxLength = 0, used = 0;
+		for (int len : lengths) {
+			maxLength = Math.max(maxLength, len);
+			if (len > 0) used++;
+		}
+		int width = HuffProcessor.BITS_PER_INT - Integer.numberOfLeadingZeros(maxLength);
+		return WIDTH_BITS + lengths.length + used * width;
+	}
+
+	/**
+	 * Read a length header written by writeLengths
+	 * @param in is the source of the header
+	 * @return the code length of each symbol, 0 if unused
+	 */
+	public static int[] readLengths(BitInputStream in) {
+		int width = in.readBits(WIDTH_BITS);
+		if (width == -1) {
+			throw new HuffException("out of bits in reading length header");
+		}
+		int[] lengths = new int[HuffProcessor.ALPH_SIZE + 1];
+		for (int symbol = 0; symbol < lengths.length; symbol++) {
+			int flag = in.readBits(1);
+			int len = 0;
+			if (flag == 1 && width > 0) {
+				len = in.readBits(width);
+			}
+			if (flag == -1 || len == -1) {
+				throw new HuffException("out of bits in reading length header");
+			}
+			lengths[symbol] = len;
+		}
+		return lengths;
+	}
+}
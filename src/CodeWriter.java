@@ -0,0 +1,110 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Writer of codes for the encoding loops of HuffProcessor, continuing
+ * the bits of a BitOutputStream. Codes are appended to a 64-bit
+ * accumulator without the checks and masking of writeBits; whenever
+ * the accumulator holds at least 32 bits it is stored as one long into
+ * a byte array, and the whole bytes stored are kept. A full array is
+ * written to the stream with writeBytes, at a byte boundary, so it is
+ * copied in bulk to the stream's buffer or channel.
+ * <P>
+ * Codes are not checked: they must be clean, i.e., have no bits set to
+ * the left of their length. writeCode only refuses a length of 0, the
+ * length of a value with no code, rather than write nothing for it.
+ * No method of the stream may be called between the construction of a
+ * CodeWriter and its close.
+ */
+
+class CodeWriter {
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final int BUFFER_SIZE = 1 << 15;
+	private static final int LONG_BITS = 64;
+	private static final int STORE_BITS = 32;
+
+	private final BitOutputStream myOut;
+	private final byte[] myBuffer;
+	private int myPosition;
+	private long myBits;
+	private int myCount;
+
+	/**
+	 * Continue writing out where it stands, including the bits of a
+	 * partial last byte
+	 * @param out is the stream written, left byte-aligned by close
+	 */
+	CodeWriter(BitOutputStream out) {
+		myOut = out;
+		myBuffer = new byte[BUFFER_SIZE + Long.BYTES];
+		myCount = out.partialBits();
+		long partial = out.detachPartialByte();
+		myBits = myCount == 0 ? 0 : partial << (LONG_BITS - myCount);
+	}
+
+	/**
+	 * Write the length right-most bits of code
+	 * @param code is clean code of at most BITS_PER_INT bits
+	 * @param length is on [1, BITS_PER_INT]
+	 */
+	void write(long code, int length) {
+		myCount += length;
+		myBits |= code << (LONG_BITS - myCount);
+		if (myCount >= STORE_BITS) {
+			store();
+		}
+	}
+
+	/**
+	 * Write the length right-most bits of code, a code longer than
+	 * BITS_PER_INT bits is written in two parts
+	 * @param code is clean code of at most CanonicalCode.MAX_CODE_LENGTH
+	 * bits
+	 * @param length is the code length
+	 * @throws HuffException if length is 0, i.e., the symbol has no code
+	 */
+	void writeCode(long code, int length) {
+		if (length == 0) {
+			throw new HuffException("no code for a value that occurs");
+		}
+		if (length > HuffProcessor.BITS_PER_INT) {
+			write(code >>> HuffProcessor.BITS_PER_INT, length - HuffProcessor.BITS_PER_INT);
+			code &= 0xffffffffL;
+			length = HuffProcessor.BITS_PER_INT;
+		}
+		write(code, length);
+	}
+
+	/**
+	 * Write everything to the stream, the last partial byte with
+	 * writeBits so the stream continues from it
+	 */
+	void close() {
+		store();
+		myOut.writeBytes(myBuffer, 0, myPosition);
+		myPosition = 0;
+		if (myCount > 0) {
+			myOut.writeBits(myCount, (int) (myBits >>> (LONG_BITS - myCount)));
+		}
+		myBits = 0;
+		myCount = 0;
+	}
+
+	/**
+	 * Store the whole bytes of the accumulator, all 8 bytes of it are
+	 * stored but the position only moves past the whole ones
+	 */
+	private void store() {
+		LONGS.set(myBuffer, myPosition, myBits);
+		int bytes = myCount >>> 3;
+		myPosition += bytes;
+		myBits <<= bytes << 3;
+		myCount &= BitOutputStream.BYTE_SIZE - 1;
+		if (myPosition >= BUFFER_SIZE) {
+			myOut.writeBytes(myBuffer, 0, myPosition);
+			myPosition = 0;
+		}
+	}
+}
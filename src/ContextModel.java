@@ -0,0 +1,340 @@
+import java.util.Arrays;
+
+/**
+ * Order-1 context model for the HUFF_CONTEXT format: each byte is coded
+ * with one of up to MAX_TABLES canonical codes, chosen by the byte
+ * before it. The 256 contexts are clustered into tables by k-means on
+ * their counts: a context goes to the table whose code lengths would
+ * code it in the fewest bits, and each table is coded for the sum of
+ * the counts of its contexts. Clusterings of 1, 2, 4, ... tables are
+ * tried and the one giving the smallest header plus data is kept.
+ * <P>
+ * The header is the number of tables in TABLE_BITS bits, the table of
+ * each context in as many bits as needed for that number (nothing for
+ * one table), then a CanonicalCode length header per table. The byte
+ * before the first byte is 0; PSEUDO_EOF is coded in the context of
+ * the last byte.
+ */
+
+public class ContextModel {
+
+	public static final int MAX_TABLES = 16;
+
+	private static final int TABLE_BITS = 5;
+	private static final int CONTEXTS = HuffProcessor.ALPH_SIZE;
+	private static final int SYMBOLS = HuffProcessor.ALPH_SIZE + 1;
+	private static final int ROUNDS = 8;
+
+	private final int[] myMap;
+	private final int[][] myLengths;
+
+	private ContextModel(int[] map, int[][] lengths) {
+		myMap = map;
+		myLengths = lengths;
+	}
+
+	/**
+	 * Count the symbols of each context of 8-bit values read from in,
+	 * including PSEUDO_EOF after the last value. Counts are scaled down
+	 * to ints by FrequencyCounter.scale if a symbol occurs more than
+	 * 2^31 times in a context.
+	 * @return counts indexed by context, then by symbol
+	 */
+	public static int[][] count(BitInputStream in) {
+		long[][] counts = new long[CONTEXTS][SYMBOLS];
+		int prev = 0;
+		while (true) {
+			int value = in.readBits(HuffProcessor.BITS_PER_WORD);
+			if (value == -1) break;
+			counts[prev][value]++;
+			prev = value;
+		}
+		counts[prev][HuffProcessor.PSEUDO_EOF]++;
+		return FrequencyCounter.scale(counts);
+	}
+
+	/**
+	 * Cluster the contexts of counts into at most maxTables tables
+	 * @param counts is indexed by context, then by symbol
+	 * @param maxTables is the maximal number of tables, on [1, MAX_TABLES]
+	 * @param maxCodeLength is the maximal code length, 0 for none
+	 * @return the model coding counts in the fewest bits
+	 */
+	public static ContextModel build(int[][] counts, int maxTables, int maxCodeLength) {
+		if (maxTables < 1 || maxTables > MAX_TABLES) {
+			throw new HuffException("illegal number of context tables " + maxTables);
+		}
+		ContextModel best = null;
+		long bestBits = Long.MAX_VALUE;
+		for (int tables = 1; tables <= maxTables; tables = tables < maxTables ? Math.min(2 * tables, maxTables) : tables + 1) {
+			ContextModel model = fromMap(counts, cluster(counts, tables), maxCodeLength);
+			long bits = model.headerBits() + model.dataBits(counts);
+			if (bits < bestBits) {
+				best = model;
+				bestBits = bits;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the number of tables of this model
+	 */
+	public int tables() {
+		return myLengths.length;
+	}
+
+	/**
+	 * Write the header of this model
+	 * @param out is where the header is written
+	 */
+	public void write(BitOutputStream out) {
+		out.writeBits(TABLE_BITS, tables());
+		int width = mapBits(tables());
+		if (width > 0) {
+			for (int table : myMap) {
+				out.writeBits(width, table);
+			}
+		}
+		for (int[] lengths : myLengths) {
+			CanonicalCode.writeLengths(lengths, out);
+		}
+	}
+
+	/**
+	 * Read a header written by write
+	 * @param in is the source of the header
+	 * @return the model
+	 */
+	public static ContextModel read(BitInputStream in) {
+		int tables = in.readBits(TABLE_BITS);
+		if (tables < 1 || tables > MAX_TABLES) {
+			throw new HuffException("bad context header, " + tables + " tables");
+		}
+		int[] map = new int[CONTEXTS];
+		int width = mapBits(tables);
+		if (width > 0) {
+			for (int context = 0; context < CONTEXTS; context++) {
+				map[context] = in.readBits(width);
+				if (map[context] < 0 || map[context] >= tables) {
+					throw new HuffException("bad context header, table " + map[context]);
+				}
+			}
+		}
+		int[][] lengths = new int[tables][];
+		for (int t = 0; t < tables; t++) {
+			lengths[t] = CanonicalCode.readLengths(in);
+		}
+		return new ContextModel(map, lengths);
+	}
+
+	/**
+	 * Code the 8-bit values of in, then PSEUDO_EOF, switching codes
+	 * on the previous value
+	 * @param in is the source of values, read to its end
+	 * @param out is where codes are written
+	 */
+	public void encode(BitInputStream in, BitOutputStream out) {
+		long[][] codes = new long[CONTEXTS][];
+		int[][] lengths = new int[CONTEXTS][];
+		long[][] tableCodes = new long[tables()][];
+		for (int t = 0; t < tables(); t++) {
+			tableCodes[t] = CanonicalCode.codesFromLengths(myLengths[t]);
+		}
+		for (int context = 0; context < CONTEXTS; context++) {
+			codes[context] = tableCodes[myMap[context]];
+			lengths[context] = myLengths[myMap[context]];
+		}
+		CodeWriter writer = new CodeWriter(out);
+		int prev = 0;
+		while (true) {
+			int value = in.readBits(HuffProcessor.BITS_PER_WORD);
+			if (value == -1) break;
+			writer.writeCode(codes[prev][value], lengths[prev][value]);
+			prev = value;
+		}
+		writer.writeCode(codes[prev][HuffProcessor.PSEUDO_EOF], lengths[prev][HuffProcessor.PSEUDO_EOF]);
+		writer.close();
+	}
+
+	/**
+	 * Decode values written by encode and write them to out until
+	 * PSEUDO_EOF is decoded. Each context refers to the decode table
+	 * of its code directly, so switching codes is one array load.
+	 * @param in is the source of compressed bits
+	 * @param out is where decoded 8-bit values are written
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		HuffDecodeTable[] tables = new HuffDecodeTable[tables()];
+		for (int t = 0; t < tables.length; t++) {
+			tables[t] = new HuffDecodeTable(HuffTree.fromLengths(myLengths[t]));
+		}
+		HuffDecodeTable[] byContext = new HuffDecodeTable[CONTEXTS];
+		for (int context = 0; context < CONTEXTS; context++) {
+			byContext[context] = tables[myMap[context]];
+		}
+		byte[] chunk = new byte[HuffProcessor.CHUNK_SIZE];
+		int count = 0;
+		int prev = 0;
+		while (true) {
+			int symbol = byContext[prev].decodeSymbol(in);
+			if (symbol == HuffProcessor.PSEUDO_EOF) break;
+			chunk[count++] = (byte) symbol;
+			if (count == chunk.length) {
+				out.writeBytes(chunk, 0, count);
+				count = 0;
+			}
+			prev = symbol;
+		}
+		out.writeBytes(chunk, 0, count);
+	}
+
+	private static int mapBits(int tables) {
+		return HuffProcessor.BITS_PER_INT - Integer.numberOfLeadingZeros(tables - 1);
+	}
+
+	private long headerBits() {
+		long bits = TABLE_BITS + (long) CONTEXTS * mapBits(tables());
+		for (int[] lengths : myLengths) {
+			bits += CanonicalCode.headerBits(lengths);
+		}
+		return bits;
+	}
+
+	private long dataBits(int[][] counts) {
+		long bits = 0;
+		for (int context = 0; context < CONTEXTS; context++) {
+			int[] lengths = myLengths[myMap[context]];
+			for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+				bits += (long) counts[context][symbol] * lengths[symbol];
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Build the code of each table from the summed counts of its contexts,
+	 * dropping tables no context is mapped to
+	 */
+	private static ContextModel fromMap(int[][] counts, int[] map, int maxCodeLength) {
+		int tables = 0;
+		for (int table : map) {
+			tables = Math.max(tables, table + 1);
+		}
+		long[][] sums = sums(counts, map, tables);
+		int[] renumber = new int[tables];
+		int used = 0;
+		for (int t = 0; t < tables; t++) {
+			renumber[t] = used;
+			if (total(sums[t]) > 0) used++;
+		}
+		int[][] lengths = new int[used][];
+		for (int t = 0; t < tables; t++) {
+			if (total(sums[t]) > 0) {
+				int[] tableCounts = FrequencyCounter.scale(sums[t]);
+				lengths[renumber[t]] = maxCodeLength > 0
+						? CanonicalCode.limitedLengths(tableCounts, maxCodeLength)
+						: CanonicalCode.lengthsFromCounts(tableCounts);
+			}
+		}
+		int[] newMap = new int[CONTEXTS];
+		for (int context = 0; context < CONTEXTS; context++) {
+			newMap[context] = total(counts[context]) > 0 ? renumber[map[context]] : 0;
+		}
+		return new ContextModel(newMap, lengths);
+	}
+
+	/**
+	 * Map contexts to at most tables clusters. The busiest contexts seed
+	 * the clusters; each round every context moves to the cluster whose
+	 * estimated code lengths, -log of the smoothed symbol probabilities,
+	 * cost it the fewest bits.
+	 */
+	private static int[] cluster(int[][] counts, int tables) {
+		int[] map = new int[CONTEXTS];
+		if (tables == 1) {
+			return map;
+		}
+		Integer[] order = new Integer[CONTEXTS];
+		for (int context = 0; context < CONTEXTS; context++) {
+			order[context] = context;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(total(counts[b]), total(counts[a])));
+		int seeds = 0;
+		Arrays.fill(map, -1);
+		while (seeds < tables && total(counts[order[seeds]]) > 0) {
+			map[order[seeds]] = seeds;
+			seeds++;
+		}
+		if (seeds < 2) {
+			Arrays.fill(map, 0);
+			return map;
+		}
+		long[][] sums = new long[seeds][];
+		for (int t = 0; t < seeds; t++) {
+			sums[t] = new long[SYMBOLS];
+			for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+				sums[t][symbol] = counts[order[t]][symbol];
+			}
+		}
+		double[][] bits = new double[seeds][SYMBOLS];
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int t = 0; t < seeds; t++) {
+				double total = total(sums[t]) + 0.5 * SYMBOLS;
+				for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+					bits[t][symbol] = -Math.log((sums[t][symbol] + 0.5) / total);
+				}
+			}
+			boolean changed = false;
+			for (int context = 0; context < CONTEXTS; context++) {
+				int[] row = counts[context];
+				if (total(row) == 0) continue;
+				int bestTable = 0;
+				double bestCost = Double.MAX_VALUE;
+				for (int t = 0; t < seeds; t++) {
+					double cost = 0;
+					for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+						if (row[symbol] > 0) cost += row[symbol] * bits[t][symbol];
+					}
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestTable = t;
+					}
+				}
+				if (map[context] != bestTable) {
+					map[context] = bestTable;
+					changed = true;
+				}
+			}
+			if (!changed) break;
+			sums = sums(counts, map, seeds);
+		}
+		for (int context = 0; context < CONTEXTS; context++) {
+			if (map[context] < 0) map[context] = 0;
+		}
+		return map;
+	}
+
+	private static long[][] sums(int[][] counts, int[] map, int tables) {
+		long[][] sums = new long[tables][SYMBOLS];
+		for (int context = 0; context < CONTEXTS; context++) {
+			if (map[context] < 0) continue;
+			for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+				sums[map[context]][symbol] += counts[context][symbol];
+			}
+		}
+		return sums;
+	}
+
+	private static long total(int[] counts) {
+		long total = 0;
+		for (int count : counts) total += count;
+		return total;
+	}
+
+	private static long total(long[] counts) {
+		long total = 0;
+		for (long count : counts) total += count;
+		return total;
+	}
+}
@@ -0,0 +1,164 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Counts occurrences of each 8-bit value for building Huffman codes.
+ * <P>
+ * Counts are kept in several interleaved histograms, consecutive
+ * bytes going to different histograms, so repeated values don't
+ * stall on incrementing the same counter; the histograms are summed
+ * at the end. Files are split into ranges counted by separate threads,
+ * each reading its range through a FileChannel into its own buffer.
+ * <P>
+ * Counts are longs since a value may occur more than 2^31 times in a
+ * file; scale brings them down to the ints the code length methods of
+ * CanonicalCode take.
+ */
+
+public class FrequencyCounter {
+
+	private static final int STRIPES = 4;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final long MIN_RANGE = 1 << 20;
+
+	/**
+	 * Count the bytes data[off] through data[off + len - 1]
+	 * @return array of ALPH_SIZE + 1 counts indexed by value,
+	 * the PSEUDO_EOF count is 0
+	 */
+	public static long[] count(byte[] data, int off, int len) {
+		long[] stripes = new long[STRIPES * HuffProcessor.ALPH_SIZE];
+		add(data, off, len, stripes);
+		return merge(stripes);
+	}
+
+	/**
+	 * Count the bytes of a file using up to threads threads
+	 * @param file is the file counted
+	 * @param threads is the maximal number of threads, 1 to count
+	 * on the calling thread
+	 * @return array of ALPH_SIZE + 1 counts indexed by value,
+	 * the PSEUDO_EOF count is 0
+	 */
+	public static long[] count(File file, int threads) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			int ranges = (int) Math.max(1, Math.min(threads, size / MIN_RANGE));
+			if (ranges == 1) {
+				return merge(countRange(channel, 0, size));
+			}
+			ForkJoinPool pool = new ForkJoinPool(ranges);
+			try {
+				ArrayList<ForkJoinTask<long[]>> tasks = new ArrayList<>();
+				for (int k = 0; k < ranges; k++) {
+					long start = size * k / ranges;
+					long end = size * (k + 1) / ranges;
+					tasks.add(pool.submit(() -> countRange(channel, start, end)));
+				}
+				long[] stripes = new long[STRIPES * HuffProcessor.ALPH_SIZE];
+				for (ForkJoinTask<long[]> task : tasks) {
+					long[] part = task.join();
+					for (int k = 0; k < stripes.length; k++) {
+						stripes[k] += part[k];
+					}
+				}
+				return merge(stripes);
+			}
+			finally {
+				pool.shutdownNow();
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+
+	private static long[] countRange(FileChannel channel, long start, long end) {
+		long[] stripes = new long[STRIPES * HuffProcessor.ALPH_SIZE];
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = start;
+		try {
+			while (position < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+				int read = channel.read(buffer, position);
+				if (read == -1) break;
+				add(buffer.array(), 0, read, stripes);
+				position += read;
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		return stripes;
+	}
+
+	private static void add(byte[] data, int off, int len, long[] stripes) {
+		final int alph = HuffProcessor.ALPH_SIZE;
+		int k = off;
+		int last = off + len - len % STRIPES;
+		for (; k < last; k += STRIPES) {
+			stripes[data[k] & 0xff]++;
+			stripes[alph + (data[k + 1] & 0xff)]++;
+			stripes[2 * alph + (data[k + 2] & 0xff)]++;
+			stripes[3 * alph + (data[k + 3] & 0xff)]++;
+		}
+		for (; k < off + len; k++) {
+			stripes[data[k] & 0xff]++;
+		}
+	}
+
+	/**
+	 * Scale counts down so that each fits in an int: all counts are
+	 * shifted right by the same number of bits, the smallest that
+	 * brings the largest count to at most Integer.MAX_VALUE, and a
+	 * count other than 0 stays at least 1 so every value occurring
+	 * gets a code
+	 * @param counts is indexed by value
+	 * @return the scaled counts, equal to counts if they all fit
+	 */
+	public static int[] scale(long[] counts) {
+		return scale(new long[][] {counts})[0];
+	}
+
+	/**
+	 * Scale several arrays of counts down by the same shift, as scale
+	 * does one, so they stay comparable
+	 * @param counts holds the arrays of counts
+	 * @return the scaled counts
+	 */
+	public static int[][] scale(long[][] counts) {
+		long max = 0;
+		for (long[] row : counts) {
+			for (long count : row) {
+				max = Math.max(max, count);
+			}
+		}
+		int shift = 0;
+		while ((max >>> shift) > Integer.MAX_VALUE) {
+			shift++;
+		}
+		int[][] scaled = new int[counts.length][];
+		for (int r = 0; r < counts.length; r++) {
+			scaled[r] = new int[counts[r].length];
+			for (int k = 0; k < counts[r].length; k++) {
+				scaled[r][k] = counts[r][k] == 0 ? 0 : (int) Math.max(1, counts[r][k] >>> shift);
+			}
+		}
+		return scaled;
+	}
+
+	private static long[] merge(long[] stripes) {
+		long[] freq = new long[HuffProcessor.ALPH_SIZE + 1];
+		for (int k = 0; k < stripes.length; k++) {
+			freq[k % HuffProcessor.ALPH_SIZE] += stripes[k];
+		}
+		return freq;
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Finite-state decoder consuming one input byte per step instead of
+ * walking a HuffTree one bit per step.
+ * <P>
+ * The states are the internal nodes of the tree, the node reached by
+ * the bits decoded so far since the last symbol. For every state and
+ * every byte value the automaton stores the symbols completed by the
+ * 8 bits of the byte, at most 8, and the state after them, so decoding
+ * is one table lookup and a copy of the symbols per byte whatever the
+ * code lengths. A step that completes PSEUDO_EOF also records how many
+ * of its bits were used, so the zero padding of a last partial byte is
+ * never decoded as data.
+ */
+
+public class HuffAutomaton {
+
+	private static final int BYTE_STATES = 1 << HuffProcessor.BITS_PER_WORD;
+	private static final int NODE_MASK = (1 << 16) - 1;
+	private static final int COUNT_SHIFT = 16;
+	private static final int EOF_SHIFT = 20;
+	private static final int FIELD_MASK = 0xf;
+
+	private final int[] myEntries;
+	private final byte[] mySymbols;
+
+	/**
+	 * Build the automaton of a Huffman tree
+	 * @param tree is the tree, of at most 2^16 internal nodes
+	 */
+	public HuffAutomaton(HuffTree tree) {
+		if (tree.size() > NODE_MASK + 1) {
+			throw new HuffException("tree too large for a decoding automaton");
+		}
+		myEntries = new int[tree.size() * BYTE_STATES];
+		mySymbols = new byte[myEntries.length * HuffProcessor.BITS_PER_WORD];
+		for (int node = 0; node < tree.size(); node++) {
+			for (int value = 0; value < BYTE_STATES; value++) {
+				build(tree, node, value);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of states of this automaton
+	 */
+	public int states() {
+		return myEntries.length / BYTE_STATES;
+	}
+
+	/**
+	 * Decode symbols from in and write them to out until PSEUDO_EOF
+	 * is decoded, reading in one byte at a time
+	 * @param in is the source of compressed bits
+	 * @param out is where decoded 8-bit values are written
+	 * @throws HuffException if in runs out before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		byte[] chunk = new byte[HuffProcessor.CHUNK_SIZE + HuffProcessor.BITS_PER_WORD];
+		int count = 0;
+		int node = HuffTree.ROOT;
+		while (true) {
+			int bits = HuffProcessor.BITS_PER_WORD;
+			int value = in.readBits(bits);
+			if (value == -1) {
+				bits = in.refill();
+				if (bits == 0) {
+					throw new HuffException("bad input, no PSEUDO_EOF");
+				}
+				value = in.peekBits(HuffProcessor.BITS_PER_WORD);
+				in.skipBits(bits);
+			}
+			int index = (node << HuffProcessor.BITS_PER_WORD) | value;
+			int entry = myEntries[index];
+			int symbols = (entry >>> COUNT_SHIFT) & FIELD_MASK;
+			int eofBits = (entry >>> EOF_SHIFT) & FIELD_MASK;
+			if (eofBits > bits || (eofBits == 0 && bits < HuffProcessor.BITS_PER_WORD)) {
+				throw new HuffException("bad input, no PSEUDO_EOF");
+			}
+			System.arraycopy(mySymbols, index * HuffProcessor.BITS_PER_WORD, chunk, count, symbols);
+			count += symbols;
+			if (eofBits > 0) break;
+			if (count >= HuffProcessor.CHUNK_SIZE) {
+				out.writeBytes(chunk, 0, count);
+				count = 0;
+			}
+			node = entry & NODE_MASK;
+		}
+		out.writeBytes(chunk, 0, count);
+	}
+
+	/**
+	 * Walk the 8 bits of value from node, storing the symbols completed
+	 * and the node reached, or stopping at PSEUDO_EOF
+	 */
+	private void build(HuffTree tree, int node, int value) {
+		int index = (node << HuffProcessor.BITS_PER_WORD) | value;
+		int current = node;
+		int symbols = 0;
+		int eofBits = 0;
+		for (int bit = HuffProcessor.BITS_PER_WORD - 1; bit >= 0; bit--) {
+			current = tree.child(current, (value >>> bit) & 1);
+			if (!HuffTree.isLeaf(current)) continue;
+			int symbol = HuffTree.symbol(current);
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				eofBits = HuffProcessor.BITS_PER_WORD - bit;
+				current = HuffTree.ROOT;
+				break;
+			}
+			mySymbols[index * HuffProcessor.BITS_PER_WORD + symbols++] = (byte) symbol;
+			current = HuffTree.ROOT;
+		}
+		myEntries[index] = (eofBits << EOF_SHIFT) | (symbols << COUNT_SHIFT) | current;
+	}
+}
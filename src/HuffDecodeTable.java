@@ -0,0 +1,245 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Lookup table for decoding Huffman codes several bits at a time
+ * instead of walking a HuffTree one bit per step.
+ * <P>
+ * The root table is indexed by the next rootBits bits of input. Each
+ * entry either holds a symbol together with the length of its code, or
+ * points to a secondary table for codes longer than rootBits. Secondary
+ * tables are built the same way so trees of any depth can be decoded;
+ * when every code fits in rootBits bits the table is single-level.
+ * <P>
+ * Lookups peek at the bits buffered in the BitInputStream and consume
+ * only the bits of the code found, so no input is read past the
+ * PSEUDO_EOF code beyond what the stream itself buffers. Codes in a
+ * byte array can also be looked up in a 64-bit window loaded with
+ * load, without a BitInputStream.
+ */
+
+public class HuffDecodeTable {
+
+	public static final int DEFAULT_ROOT_BITS = 11;
+
+	/**
+	 * Number of bits of input load always returns, the longest code
+	 * lookup can decode
+	 */
+	static final int LOAD_BITS = Long.SIZE - Long.BYTES + 1;
+	static final int LENGTH_SHIFT = 16;
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	private static final int SUB_FLAG = 0x80000000;
+	private static final int WIDTH_BITS = 5;
+	private static final int WIDTH_MASK = (1 << WIDTH_BITS) - 1;
+	private static final int SYMBOL_MASK = (1 << LENGTH_SHIFT) - 1;
+
+	private int[] myTable;
+	private int mySize;
+	private final int myRootBits;
+	private final int myMaxLength;
+
+	private boolean myDone;
+
+	/**
+	 * Build a decode table with DEFAULT_ROOT_BITS bits in the root table
+	 * @param tree is the Huffman tree
+	 */
+	public HuffDecodeTable(HuffTree tree) {
+		this(tree, DEFAULT_ROOT_BITS);
+	}
+
+	/**
+	 * Build a decode table from a linked Huffman tree
+	 * @param root is the root of the Huffman tree
+	 */
+	public HuffDecodeTable(HuffNode root) {
+		this(HuffTree.fromNode(root), DEFAULT_ROOT_BITS);
+	}
+
+	/**
+	 * Build a decode table from a Huffman tree
+	 * @param tree is the Huffman tree
+	 * @param rootBits is the maximal number of bits looked up at once,
+	 * the root table has at most 2^rootBits entries
+	 */
+	public HuffDecodeTable(HuffTree tree, int rootBits) {
+		if (rootBits < 1 || rootBits > HuffProcessor.BITS_PER_INT - WIDTH_BITS - 1) {
+			throw new HuffException("illegal decode table width " + rootBits);
+		}
+		int[] heights = tree.heights();
+		myMaxLength = heights[HuffTree.ROOT];
+		myRootBits = Math.min(rootBits, myMaxLength);
+		myTable = new int[1 << myRootBits];
+		mySize = 0;
+		build(tree, heights, HuffTree.ROOT, myRootBits, rootBits);
+	}
+
+	/**
+	 * Returns number of int entries in all levels of this table
+	 * @return size of the table
+	 */
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * Returns the length of the longest code
+	 */
+	public int maxLength() {
+		return myMaxLength;
+	}
+
+	/**
+	 * Decode symbols from in and write them to out until PSEUDO_EOF
+	 * is decoded. Symbols are decoded into a chunk of bytes written
+	 * to out in bulk.
+	 * @param in is the source of compressed bits
+	 * @param out is where decoded 8-bit values are written
+	 * @throws HuffException if in runs out before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		byte[] chunk = new byte[HuffProcessor.CHUNK_SIZE];
+		while (true) {
+			int count = decode(in, chunk, 0, chunk.length);
+			if (count == -1) break;
+			out.writeBytes(chunk, 0, count);
+		}
+	}
+
+	/**
+	 * Decode up to len symbols from in into dst, stopping early at
+	 * PSEUDO_EOF. Decoding resumes where the previous call stopped.
+	 * @param in is the source of compressed bits
+	 * @param dst is where decoded bytes are stored
+	 * @param off is the index in dst of the first decoded byte
+	 * @param len is the maximal number of bytes decoded
+	 * @return number of bytes decoded, -1 if PSEUDO_EOF is reached
+	 * before any byte is decoded
+	 * @throws HuffException if in runs out before PSEUDO_EOF
+	 */
+	public int decode(BitInputStream in, byte[] dst, int off, int len) {
+		if (myDone) {
+			return -1;
+		}
+		int count = 0;
+		while (count < len) {
+			int symbol = decodeSymbol(in);
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				myDone = true;
+				return count == 0 ? -1 : count;
+			}
+			dst[off + count] = (byte) symbol;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Decode one symbol, refilling the bits of in only when fewer than
+	 * a lookup needs are buffered. Near the end of in the lookup is
+	 * padded with 0 bits, which no code may consume. No state is kept
+	 * between calls, so one table can decode several streams in turn.
+	 * @param in is the source of compressed bits
+	 * @return the symbol decoded
+	 * @throws HuffException if in runs out of bits
+	 */
+	public int decodeSymbol(BitInputStream in) {
+		int offset = 0;
+		int bits = myRootBits;
+		int entry;
+		while (true) {
+			in.ensureBits(bits);
+			entry = myTable[offset + in.peekBits(bits)];
+			if (entry >= 0) break;
+			if (bits > in.bitsAvailable()) {
+				throw new HuffException("bad input, no PSEUDO_EOF");
+			}
+			in.skipBits(bits);
+			offset = (entry & ~SUB_FLAG) >>> WIDTH_BITS;
+			bits = entry & WIDTH_MASK;
+		}
+		int length = entry >>> LENGTH_SHIFT;
+		if (length > in.bitsAvailable()) {
+			throw new HuffException("bad input, no PSEUDO_EOF");
+		}
+		in.skipBits(length);
+		return entry & SYMBOL_MASK;
+	}
+
+	/**
+	 * Look up the code at the top of a window of input, its first bit
+	 * in bit 63, following secondary tables as decodeSymbol does
+	 * @param bits holds at least maxLength() bits of input
+	 * @return the symbol decoded plus its code length shifted left by
+	 * LENGTH_SHIFT
+	 */
+	int lookup(long bits) {
+		int entry = myTable[(int) (bits >>> (Long.SIZE - myRootBits))];
+		int consumed = 0;
+		int width = myRootBits;
+		while (entry < 0) {
+			consumed += width;
+			width = entry & WIDTH_MASK;
+			int offset = (entry & ~SUB_FLAG) >>> WIDTH_BITS;
+			entry = myTable[offset + (int) ((bits << consumed) >>> (Long.SIZE - width))];
+		}
+		return entry + (consumed << LENGTH_SHIFT);
+	}
+
+	/**
+	 * Returns the bits of src from bit position on, most significant
+	 * bit of each byte first, in a window for lookup: the first bit is
+	 * in bit 63 and at least LOAD_BITS bits follow. Bits past end are 0.
+	 */
+	static long load(byte[] src, long position, int end) {
+		long index = position >>> 3;
+		long bits;
+		if (index + Long.BYTES <= end) {
+			bits = (long) LONGS.get(src, (int) index);
+		}
+		else {
+			bits = 0;
+			for (long k = index; k < index + Long.BYTES; k++) {
+				bits = (bits << Byte.SIZE) | (k < end ? src[(int) k] & 0xff : 0);
+			}
+		}
+		return bits << (position & 7);
+	}
+
+	/**
+	 * Fill a new table of 2^bits entries for the subtree rooted at
+	 * internal node, recursively building secondary tables for subtrees
+	 * still unresolved after bits steps.
+	 * @return offset of the new table in myTable
+	 */
+	private int build(HuffTree tree, int[] heights, int node, int bits, int maxBits) {
+		int offset = mySize;
+		int entries = 1 << bits;
+		mySize += entries;
+		if (mySize > myTable.length) {
+			myTable = Arrays.copyOf(myTable, Math.max(mySize, 2 * myTable.length));
+		}
+		for (int index = 0; index < entries; index++) {
+			int current = node;
+			int depth = 0;
+			while (depth < bits && !HuffTree.isLeaf(current)) {
+				current = tree.child(current, (index >>> (bits - 1 - depth)) & 1);
+				depth++;
+			}
+			if (HuffTree.isLeaf(current)) {
+				myTable[offset + index] = (depth << LENGTH_SHIFT) | HuffTree.symbol(current);
+			}
+			else {
+				int width = Math.min(maxBits, heights[current]);
+				int sub = build(tree, heights, current, width, maxBits);
+				myTable[offset + index] = SUB_FLAG | (sub << WIDTH_BITS) | width;
+			}
+		}
+		return offset;
+	}
+}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 /**
  *	Used in place of IOException so user does not have to use
  *	try-catch blocks.  Used in place of RuntimeException so
@@ -14,4 +16,20 @@ public class HuffException extends RuntimeException {
 	public HuffException(String error) {
 		super(error);
 	}
+
+	/**
+	 * Returns the IOException a java.io stream should throw for e: the
+	 * IOException e wraps, or e wrapped if it is a HuffException, i.e.,
+	 * if the data is bad
+	 * @throws RuntimeException e itself if it is neither
+	 */
+	static IOException toIOException(RuntimeException e) {
+		if (e.getCause() instanceof IOException) {
+			return (IOException) e.getCause();
+		}
+		if (e instanceof HuffException) {
+			return new IOException(e.getMessage(), e);
+		}
+		throw e;
+	}
 }
\ No newline at end of file
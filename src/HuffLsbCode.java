@@ -0,0 +1,206 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Canonical code written least-significant bit first, for BLOCK_HUFF_LSB
+ * blocks. Bits fill each byte from bit 0 up and the first bit of a code
+ * is its most significant one, so a code is stored bit-reversed. The
+ * decoder loads 8 bytes at a time as a little-endian long shifted right
+ * by the bit position, which leaves at least 57 bits at the bottom; the
+ * next code is then in the low bits, looked up with a single mask in a
+ * table indexed by reversed codes. Several codes are decoded per load.
+ * <P>
+ * Codes longer than TABLE_BITS have no table entry and are decoded one
+ * bit at a time from the first code and the number of codes of each
+ * length, as in zlib's puff.
+ */
+
+public class HuffLsbCode {
+
+	public static final int TABLE_BITS = 11;
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final int TABLE_MASK = (1 << TABLE_BITS) - 1;
+	private static final int LOAD_BITS = Long.SIZE - Long.BYTES + 1;
+	private static final int STORE_BITS = 32;
+	private static final int SYMBOL_SHIFT = 8;
+	private static final int LENGTH_MASK = (1 << SYMBOL_SHIFT) - 1;
+
+	private final int[] myLengths;
+	private final long[] myReversed;
+	private final int[] myTable;
+	private final long[] myCounts;
+	private final int[] mySorted;
+	private final int myMaxLength;
+
+	/**
+	 * Build the code of the given lengths
+	 * @param lengths is the code length of each 8-bit value, 0 if unused;
+	 * entries after the first ALPH_SIZE must be 0
+	 * @throws HuffException if the lengths do not describe a complete
+	 * prefix code of 8-bit values
+	 */
+	public HuffLsbCode(int[] lengths) {
+		long[] codes = CanonicalCode.codesFromLengths(lengths);
+		for (int symbol = HuffProcessor.ALPH_SIZE; symbol < lengths.length; symbol++) {
+			if (lengths[symbol] != 0) {
+				throw new HuffException("symbol " + symbol + " in a code of 8-bit values");
+			}
+		}
+		myLengths = lengths;
+		myReversed = new long[HuffProcessor.ALPH_SIZE];
+		myTable = new int[1 << TABLE_BITS];
+		int maxLength = 0;
+		for (int symbol = 0; symbol < HuffProcessor.ALPH_SIZE; symbol++) {
+			int len = lengths[symbol];
+			if (len == 0) continue;
+			maxLength = Math.max(maxLength, len);
+			myReversed[symbol] = Long.reverse(codes[symbol]) >>> (Long.SIZE - len);
+			if (len <= TABLE_BITS) {
+				for (int index = (int) myReversed[symbol]; index < myTable.length; index += 1 << len) {
+					myTable[index] = (symbol << SYMBOL_SHIFT) | len;
+				}
+			}
+		}
+		myMaxLength = maxLength;
+		myCounts = new long[maxLength + 1];
+		mySorted = new int[HuffProcessor.ALPH_SIZE];
+		int sorted = 0;
+		for (int len = 1; len <= maxLength; len++) {
+			for (int symbol = 0; symbol < HuffProcessor.ALPH_SIZE; symbol++) {
+				if (lengths[symbol] == len) {
+					myCounts[len]++;
+					mySorted[sorted++] = symbol;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes encode writes for the given counts
+	 * @param counts is the number of times each 8-bit value is coded
+	 */
+	public long encodedBytes(int[] counts) {
+		long bits = 0;
+		for (int symbol = 0; symbol < HuffProcessor.ALPH_SIZE; symbol++) {
+			bits += (long) counts[symbol] * myLengths[symbol];
+		}
+		return (bits + Byte.SIZE - 1) / Byte.SIZE;
+	}
+
+	/**
+	 * Code data[0] through data[size - 1] into dst from dst[off] on. The
+	 * 8 bytes after the last byte written may be overwritten.
+	 * @return the index in dst after the last byte written
+	 * @throws HuffException if a value of data has no code
+	 */
+	public int encode(byte[] data, int size, byte[] dst, int off) {
+		long bits = 0;
+		int count = 0;
+		int position = off;
+		for (int k = 0; k < size; k++) {
+			int symbol = data[k] & 0xff;
+			long code = myReversed[symbol];
+			int len = myLengths[symbol];
+			if (len == 0) {
+				throw new HuffException("no code for value " + symbol);
+			}
+			if (len > STORE_BITS) {
+				bits |= (code & 0xffffffffL) << count;
+				count += STORE_BITS;
+				code >>>= STORE_BITS;
+				len -= STORE_BITS;
+				LONGS.set(dst, position, bits);
+				position += count >>> 3;
+				bits >>>= count & ~7;
+				count &= 7;
+			}
+			bits |= code << count;
+			count += len;
+			if (count >= STORE_BITS) {
+				LONGS.set(dst, position, bits);
+				position += count >>> 3;
+				bits >>>= count & ~7;
+				count &= 7;
+			}
+		}
+		LONGS.set(dst, position, bits);
+		return position + (count + Byte.SIZE - 1) / Byte.SIZE;
+	}
+
+	/**
+	 * Decode count 8-bit values coded by encode in src[from] through
+	 * src[end - 1] into dst[off] through dst[off + count - 1]
+	 * @throws HuffException unless the codes end in the last byte
+	 */
+	public void decode(byte[] src, int from, int end, byte[] dst, int off, int count) {
+		long position = (long) from * Byte.SIZE;
+		int k = off;
+		int last = off + count;
+		while (k < last) {
+			long bits = load(src, position, end);
+			int used = 0;
+			while (used <= LOAD_BITS - TABLE_BITS && k < last) {
+				int entry = myTable[(int) (bits >>> used) & TABLE_MASK];
+				if (entry == 0) break;
+				dst[k++] = (byte) (entry >>> SYMBOL_SHIFT);
+				used += entry & LENGTH_MASK;
+			}
+			position += used;
+			if (k < last && used <= LOAD_BITS - TABLE_BITS) {
+				position = decodeLong(src, position, end, dst, k++);
+			}
+		}
+		long endBits = (long) end * Byte.SIZE;
+		if (position > endBits || endBits - position >= Byte.SIZE) {
+			throw new HuffException("LSB block decoded to wrong size");
+		}
+	}
+
+	/**
+	 * Decode one code longer than TABLE_BITS one bit at a time: the
+	 * codes of each length are consecutive, following the last code of
+	 * the length before, shifted left one bit
+	 * @return the bit position after the code
+	 */
+	private long decodeLong(byte[] src, long position, int end, byte[] dst, int k) {
+		long code = 0;
+		long first = 0;
+		int index = 0;
+		for (int len = 1; len <= myMaxLength; len++) {
+			code |= bit(src, position++, end);
+			if (code - first < myCounts[len]) {
+				dst[k] = (byte) mySorted[index + (int) (code - first)];
+				return position;
+			}
+			index += (int) myCounts[len];
+			first = (first + myCounts[len]) << 1;
+			code <<= 1;
+		}
+		throw new HuffException("bad LSB code");
+	}
+
+	/**
+	 * Returns the bits of src from bit position on, bits past end are 0
+	 */
+	private static long load(byte[] src, long position, int end) {
+		int index = (int) (position >>> 3);
+		long bits;
+		if (index + Long.BYTES <= end) {
+			bits = (long) LONGS.get(src, index);
+		}
+		else {
+			bits = 0;
+			for (int k = end - 1; k >= index; k--) {
+				bits = (bits << Byte.SIZE) | (src[k] & 0xff);
+			}
+		}
+		return bits >>> (position & 7);
+	}
+
+	private static int bit(byte[] src, long position, int end) {
+		int index = (int) (position >>> 3);
+		return index < end ? (src[index] >>> (position & 7)) & 1 : 0;
+	}
+}
@@ -10,8 +10,8 @@ public class HuffMainCompress {
 			System.err.println("input or output file cancelled");
 			return;
 		}
-		BitInputStream bis = new BitInputStream(inf);
-		BitOutputStream bos = new BitOutputStream(outf);
+		BitInputStream bis = new BitInputStream(inf.toPath());
+		BitOutputStream bos = new BitOutputStream(outf.toPath());
 		HuffProcessor hp = new HuffProcessor();
 		hp.compress(bis, bos);
 		System.out.printf("compress from %s to %s\n", 
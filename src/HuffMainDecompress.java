@@ -12,8 +12,8 @@ public class HuffMainDecompress {
 			System.err.println("input or output file cancelled");
 			return;
 		}
-		BitInputStream bis = new BitInputStream(inf);
-		BitOutputStream bos = new BitOutputStream(outf);
+		BitInputStream bis = new BitInputStream(inf.toPath());
+		BitOutputStream bos = new BitOutputStream(outf.toPath());
 		HuffProcessor hp = new HuffProcessor();
 		hp.decompress(bis, bos);
 		System.out.printf("uncompress from %s to %s\n", 
@@ -0,0 +1,98 @@
+/**
+ * Lookup table decoding up to MAX_SYMBOLS symbols per lookup. Each of
+ * the 2^WINDOW_BITS entries holds every symbol whose code is complete
+ * within the next WINDOW_BITS bits, up to MAX_SYMBOLS, packed one byte
+ * each, with their number and their total code length. With the short
+ * codes of text, most lookups decode two or three symbols.
+ * <P>
+ * Entries never include PSEUDO_EOF or any other symbol beyond 8 bits. An
+ * entry with no symbols, i.e., one whose first code is such a symbol or
+ * is longer than WINDOW_BITS, is decoded one symbol at a time with a
+ * HuffDecodeTable of the same tree.
+ */
+
+public class HuffMultiTable {
+
+	public static final int WINDOW_BITS = 12;
+	public static final int MAX_SYMBOLS = 3;
+
+	private static final int BITS_SHIFT = 24;
+	private static final int COUNT_SHIFT = 28;
+	private static final int BITS_MASK = 0xf;
+
+	private final int[] myTable;
+	private final HuffDecodeTable mySingle;
+
+	/**
+	 * Build the table of a Huffman tree
+	 * @param tree is the tree
+	 */
+	public HuffMultiTable(HuffTree tree) {
+		mySingle = new HuffDecodeTable(tree);
+		myTable = new int[1 << WINDOW_BITS];
+		for (int index = 0; index < myTable.length; index++) {
+			myTable[index] = build(tree, index);
+		}
+	}
+
+	/**
+	 * Decode symbols from in and write them to out until PSEUDO_EOF
+	 * is decoded
+	 * @param in is the source of compressed bits
+	 * @param out is where decoded 8-bit values are written
+	 * @throws HuffException if in runs out before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		byte[] chunk = new byte[HuffProcessor.CHUNK_SIZE + MAX_SYMBOLS];
+		int count = 0;
+		while (true) {
+			in.ensureBits(WINDOW_BITS);
+			int entry = myTable[in.peekBits(WINDOW_BITS)];
+			int bits = (entry >>> BITS_SHIFT) & BITS_MASK;
+			if (entry == 0 || bits > in.bitsAvailable()) {
+				int symbol = mySingle.decodeSymbol(in);
+				if (symbol == HuffProcessor.PSEUDO_EOF) break;
+				chunk[count++] = (byte) symbol;
+			}
+			else {
+				in.skipBits(bits);
+				chunk[count] = (byte) entry;
+				chunk[count + 1] = (byte) (entry >>> HuffProcessor.BITS_PER_WORD);
+				chunk[count + 2] = (byte) (entry >>> (2 * HuffProcessor.BITS_PER_WORD));
+				count += entry >>> COUNT_SHIFT;
+			}
+			if (count >= HuffProcessor.CHUNK_SIZE) {
+				out.writeBytes(chunk, 0, count);
+				count = 0;
+			}
+		}
+		out.writeBytes(chunk, 0, count);
+	}
+
+	/**
+	 * Decode the codes complete within the WINDOW_BITS bits of index
+	 * @return the packed entry, 0 if no symbol is decoded
+	 */
+	private static int build(HuffTree tree, int index) {
+		int entry = 0;
+		int symbols = 0;
+		int used = 0;
+		int position = 0;
+		int node = HuffTree.ROOT;
+		while (position < WINDOW_BITS && symbols < MAX_SYMBOLS) {
+			node = tree.child(node, (index >>> (WINDOW_BITS - 1 - position)) & 1);
+			position++;
+			if (!HuffTree.isLeaf(node)) continue;
+			int symbol = HuffTree.symbol(node);
+			if (symbol >= HuffProcessor.ALPH_SIZE) break;
+			entry |= symbol << (HuffProcessor.BITS_PER_WORD * symbols);
+			symbols++;
+			used = position;
+			node = HuffTree.ROOT;
+		}
+		if (symbols == 0) {
+			return 0;
+		}
+		return (symbols << COUNT_SHIFT) | (used << BITS_SHIFT) | entry;
+	}
+}
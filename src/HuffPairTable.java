@@ -0,0 +1,90 @@
+/**
+ * Encoding table of byte pairs: for every two 8-bit values a, b the
+ * code of a followed by the code of b, so compress looks up and writes
+ * two symbols at a time. A pair is indexed by the 16 bits a * 256 + b,
+ * as read by readBits(16); its entry holds the combined code shifted
+ * left PAIR_SHIFT bits and the combined length in the low bits.
+ * <P>
+ * Only pairs of symbols both in the code get an entry, and only when
+ * the combined code fits in the BITS_PER_INT bits of one write.
+ * Other pairs, with entry 0, are written one symbol at a time.
+ */
+
+public class HuffPairTable {
+
+	private static final int PAIR_BITS = 2 * HuffProcessor.BITS_PER_WORD;
+	private static final int PAIR_SHIFT = 8;
+	private static final int LENGTH_MASK = (1 << PAIR_SHIFT) - 1;
+
+	private final long[] myEntries;
+	private final long[] myCodes;
+	private final int[] myLengths;
+
+	/**
+	 * Build the pair table of a code
+	 * @param codes is the code of each symbol in the lengths[symbol]
+	 * right-most bits
+	 * @param lengths is the code length of each symbol, 0 if unused
+	 */
+	public HuffPairTable(long[] codes, int[] lengths) {
+		myCodes = codes;
+		myLengths = lengths;
+		myEntries = new long[1 << PAIR_BITS];
+		for (int a = 0; a < HuffProcessor.ALPH_SIZE; a++) {
+			if (lengths[a] == 0) continue;
+			for (int b = 0; b < HuffProcessor.ALPH_SIZE; b++) {
+				int length = lengths[a] + lengths[b];
+				if (lengths[b] == 0 || length > HuffProcessor.BITS_PER_INT) continue;
+				long code = (codes[a] << lengths[b]) | codes[b];
+				myEntries[(a << HuffProcessor.BITS_PER_WORD) | b] = (code << PAIR_SHIFT) | length;
+			}
+		}
+	}
+
+	/**
+	 * Write the codes of the 8-bit values of in, read to its end
+	 * @param in is the source of values
+	 * @param out is where codes are written
+	 */
+	void encode(BitInputStream in, CodeWriter out) {
+		while (true) {
+			int pair = in.readBits(PAIR_BITS);
+			if (pair == -1) break;
+			writePair(pair, out);
+		}
+		int value = in.readBits(HuffProcessor.BITS_PER_WORD);
+		if (value != -1) {
+			out.writeCode(myCodes[value], myLengths[value]);
+		}
+	}
+
+	/**
+	 * Write the codes of the bytes of data on [from, to)
+	 * @param data is the source of values
+	 * @param from is the index of the first value coded
+	 * @param to is the index after the last value coded
+	 * @param out is where codes are written
+	 */
+	void encode(byte[] data, int from, int to, CodeWriter out) {
+		int k = from;
+		for (; k + 1 < to; k += 2) {
+			writePair(((data[k] & 0xff) << HuffProcessor.BITS_PER_WORD) | (data[k + 1] & 0xff), out);
+		}
+		if (k < to) {
+			int value = data[k] & 0xff;
+			out.writeCode(myCodes[value], myLengths[value]);
+		}
+	}
+
+	private void writePair(int pair, CodeWriter out) {
+		long entry = myEntries[pair];
+		if (entry != 0) {
+			out.write(entry >>> PAIR_SHIFT, (int) (entry & LENGTH_MASK));
+			return;
+		}
+		int a = pair >>> HuffProcessor.BITS_PER_WORD;
+		int b = pair & (HuffProcessor.ALPH_SIZE - 1);
+		out.writeCode(myCodes[a], myLengths[a]);
+		out.writeCode(myCodes[b], myLengths[b]);
+	}
+}
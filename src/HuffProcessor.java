@@ -1,4 +1,9 @@
-import java.util.PriorityQueue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Although this class has a history of several years,
@@ -19,11 +24,45 @@ public class HuffProcessor {
 	public static final int PSEUDO_EOF = ALPH_SIZE;
 	public static final int HUFF_NUMBER = 0xface8200;
 	public static final int HUFF_TREE  = HUFF_NUMBER | 1;
+	public static final int HUFF_CANON = HUFF_NUMBER | 2;
+	public static final int HUFF_BLOCKS = HUFF_NUMBER | 3;
+	public static final int HUFF_ADAPTIVE = HUFF_NUMBER | 4;
+	public static final int HUFF_CONTEXT = HUFF_NUMBER | 5;
+
+	public static final int BLOCK_STORED = 0;
+	public static final int BLOCK_HUFF = 1;
+	public static final int BLOCK_HUFF4 = 2;
+	public static final int BLOCK_HUFF_LSB = 3;
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+	public static final int DEFAULT_CONTEXT_TABLES = 8;
+
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	static final int CHUNK_SIZE = 1 << 13;
+	private static final int STREAMS = 4;
+	private static final int PAIR_TABLE_MIN_SIZE = 1 << 16;
 
 	private final int myDebugLevel;
 	
 	public static final int DEBUG_HIGH = 4;
 	public static final int DEBUG_LOW = 1;
+
+	public static final int DECODE_TREE = 0;
+	public static final int DECODE_TABLE = 1;
+	public static final int DECODE_AUTOMATON = 2;
+	public static final int DECODE_MULTI = 3;
+
+	public static final int ENCODE_SYMBOLS = 0;
+	public static final int ENCODE_PAIRS = 1;
+
+	private int myDecodeMode = DECODE_TABLE;
+	private int myEncodeMode = ENCODE_PAIRS;
+	private int myHeaderFormat = HUFF_TREE;
+	private int myBlockSize = DEFAULT_BLOCK_SIZE;
+	private int myThreads = Runtime.getRuntime().availableProcessors();
+	private int myMaxCodeLength = 0;
+	private boolean myInterleaved = false;
+	private boolean myLsbFirst = false;
+	private int myContextTables = DEFAULT_CONTEXT_TABLES;
 	
 	public HuffProcessor() {
 		this(0);
@@ -33,8 +72,147 @@ public class HuffProcessor {
 		myDebugLevel = debug;
 	}
 
+	/**
+	 * Choose how compressed bits are decoded by decompress.
+	 * DECODE_TREE walks the Huffman tree one bit at a time,
+	 * DECODE_TABLE (the default) looks up several bits at once
+	 * in a HuffDecodeTable built from the tree, DECODE_AUTOMATON
+	 * consumes one byte per step in a HuffAutomaton built from the
+	 * tree, DECODE_MULTI decodes up to three symbols per lookup in a
+	 * HuffMultiTable. Blocks of the HUFF_BLOCKS format and the codes of
+	 * the HUFF_CONTEXT format are always decoded with tables.
+	 * @param mode is DECODE_TREE, DECODE_TABLE, DECODE_AUTOMATON or
+	 * DECODE_MULTI
+	 */
+	public void setDecodeMode(int mode) {
+		if (mode < DECODE_TREE || mode > DECODE_MULTI) {
+			throw new HuffException("unknown decode mode " + mode);
+		}
+		myDecodeMode = mode;
+	}
+
+	/**
+	 * Choose how compress writes codes. ENCODE_SYMBOLS looks up and
+	 * writes the code of one byte at a time, ENCODE_PAIRS (the default)
+	 * looks up the combined code of two bytes in a HuffPairTable and
+	 * writes both with one writeBits when they fit in an int. The output
+	 * is the same either way. Codes of the HUFF_CONTEXT format, which
+	 * change with every byte, and of blocks under 64KB, too small to
+	 * pay for building the 512KB table, are always written one at a
+	 * time.
+	 * @param mode is ENCODE_SYMBOLS or ENCODE_PAIRS
+	 */
+	public void setEncodeMode(int mode) {
+		if (mode != ENCODE_SYMBOLS && mode != ENCODE_PAIRS) {
+			throw new HuffException("unknown encode mode " + mode);
+		}
+		myEncodeMode = mode;
+	}
+
+	/**
+	 * Choose the format written by compress. HUFF_TREE (the default)
+	 * writes the Huffman tree in preorder, HUFF_CANON writes only the
+	 * code length of each symbol and uses canonical codes.
+	 * HUFF_BLOCKS compresses the input in blocks of the block size,
+	 * each with its own canonical code, reading the input just once.
+	 * HUFF_CONTEXT codes each byte with one of several canonical codes
+	 * chosen by the byte before it, see ContextModel.
+	 * decompress reads any of these formats.
+	 * @param format is HUFF_TREE, HUFF_CANON, HUFF_BLOCKS or HUFF_CONTEXT
+	 */
+	public void setHeaderFormat(int format) {
+		if (format != HUFF_TREE && format != HUFF_CANON && format != HUFF_BLOCKS && format != HUFF_CONTEXT) {
+			throw new HuffException("unknown header format " + format);
+		}
+		myHeaderFormat = format;
+	}
+
+	/**
+	 * Set the number of input bytes in each block of the HUFF_BLOCKS
+	 * format, the default is DEFAULT_BLOCK_SIZE
+	 * @param size is the block size in bytes
+	 */
+	public void setBlockSize(int size) {
+		if (size < 1) {
+			throw new HuffException("illegal block size " + size);
+		}
+		myBlockSize = size;
+	}
+
+	/**
+	 * Limit the length of the codes used by compress. Limited codes are
+	 * the optimal codes no longer than the limit, computed with the
+	 * package-merge algorithm; a limit of 11, the root width of a
+	 * HuffDecodeTable, keeps every code in a single-level decode table.
+	 * @param maxLength is the maximal code length, 0 (the default)
+	 * for unrestricted Huffman codes
+	 */
+	public void setMaxCodeLength(int maxLength) {
+		if (maxLength < 0 || maxLength > CanonicalCode.MAX_CODE_LENGTH
+				|| (maxLength > 0 && maxLength < BITS_PER_WORD + 1)) {
+			throw new HuffException("illegal maximal code length " + maxLength);
+		}
+		myMaxCodeLength = maxLength;
+	}
+
+	/**
+	 * Split each block of the HUFF_BLOCKS format into 4 sub-streams
+	 * coded with the same canonical code, like Huff0 does in zstd.
+	 * Blocks are then BLOCK_HUFF4 blocks, which decompress decodes one
+	 * symbol from each sub-stream per step: the 4 bit streams don't
+	 * depend on each other, so their lookups can overlap.
+	 * @param interleaved is true for 4 sub-streams per block, false
+	 * (the default) for one
+	 */
+	public void setInterleaved(boolean interleaved) {
+		myInterleaved = interleaved;
+	}
+
+	/**
+	 * Write the codes of each block of the HUFF_BLOCKS format least
+	 * significant bit first, as BLOCK_HUFF_LSB blocks, see HuffLsbCode.
+	 * Decoding then loads 8 bytes at a time and finds each code with
+	 * one mask instead of shifting bits out of a bit buffer. Blocks are
+	 * single streams: setInterleaved is ignored while this is set.
+	 * @param lsbFirst is true for BLOCK_HUFF_LSB blocks, false (the
+	 * default) for the most significant bit first blocks of BitOutputStream
+	 */
+	public void setLsbFirst(boolean lsbFirst) {
+		myLsbFirst = lsbFirst;
+	}
+
+	/**
+	 * Set the maximal number of codes of the HUFF_CONTEXT format, the
+	 * default is DEFAULT_CONTEXT_TABLES. Fewer codes are used when the
+	 * header of more would cost more than they save.
+	 * @param tables is on [1, ContextModel.MAX_TABLES]
+	 */
+	public void setContextTables(int tables) {
+		if (tables < 1 || tables > ContextModel.MAX_TABLES) {
+			throw new HuffException("illegal number of context tables " + tables);
+		}
+		myContextTables = tables;
+	}
+
+	/**
+	 * Set the number of threads compressing or decompressing blocks of
+	 * the HUFF_BLOCKS format in parallel, and counting the bytes of a
+	 * file; the default is the number of processors. Blocks are written
+	 * in order whatever the number of threads.
+	 * @param threads is the number of threads, 1 to use only the caller
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new HuffException("illegal number of threads " + threads);
+		}
+		myThreads = threads;
+	}
+
 	/**
 	 * Compresses a file. Process must be reversible and loss-less.
+	 * Input that can't be reset, e.g., a stream that is not a file,
+	 * is compressed in the HUFF_BLOCKS format regardless of the
+	 * chosen format since the input is read only once.
 	 *
 	 * @param in
 	 *            Buffered bit stream of the file to be compressed.
@@ -42,87 +220,288 @@ public class HuffProcessor {
 	 *            Buffered bit stream writing to the output file.
 	 */
 	public void compress(BitInputStream in, BitOutputStream out){
+		if (myHeaderFormat == HUFF_BLOCKS || !in.markSupported()) {
+			compressBlocks(in, out);
+			return;
+		}
+
+		if (myHeaderFormat == HUFF_CONTEXT) {
+			ContextModel model = ContextModel.build(ContextModel.count(in), myContextTables, myMaxCodeLength);
+			if (myDebugLevel >= DEBUG_HIGH) {
+				System.out.printf("context model with %d tables\n", model.tables());
+			}
+			out.writeBits(BITS_PER_INT, HUFF_CONTEXT);
+			model.write(out);
+			in.reset();
+			model.encode(in, out);
+			out.close();
+			return;
+		}
 
 		int[] freq = readForCounts(in);
-		HuffNode root = makeTreeFromCounts(freq);
-		String[] codings = new String[ALPH_SIZE + 1];
-		makeCodingsFromTree(root,"", codings);
-		out.writeBits(BITS_PER_INT, HUFF_TREE);
-		writeHeader(root,out);
+		long[] codes = new long[ALPH_SIZE + 1];
+		int[] lengths = new int[ALPH_SIZE + 1];
+		out.writeBits(BITS_PER_INT, myHeaderFormat);
+		if (myHeaderFormat == HUFF_CANON) {
+			lengths = codeLengths(freq);
+			codes = CanonicalCode.codesFromLengths(lengths);
+			CanonicalCode.writeLengths(lengths, out);
+		}
+		else {
+			HuffTree tree = HuffTree.fromLengths(codeLengths(freq));
+			tree.fillCodes(codes, lengths);
+			tree.writeHeader(out);
+		}
+		if (myDebugLevel >= DEBUG_HIGH) {
+			for (int k = 0; k < ALPH_SIZE + 1; k++) {
+				if (lengths[k] > 0) {
+					System.out.printf("encoding for %d is %s\n", k, CanonicalCode.toString(codes[k], lengths[k]));
+				}
+			}
+		}
 		
+		long size = 0;
+		for (int count : freq) {
+			size += count;
+		}
 		in.reset();
-		writeCompressedBits(codings,in,out);
+		writeCompressedBits(codes,lengths,size,in,out);
 		out.close();
 	}
 
+	/**
+	 * Count the 8-bit values of in. A file is counted directly through
+	 * a FileChannel by up to myThreads threads rather than bit by bit,
+	 * and in is not read; other input is read to its end. Either way
+	 * in must be reset before it is coded. Counts are scaled down to
+	 * ints by FrequencyCounter.scale when values occur more than 2^31
+	 * times.
+	 */
 	private int[] readForCounts(BitInputStream in) {
-		int[] freq = new int[ALPH_SIZE + 1];
-		while (true) {
+		long[] freq;
+		if (in.file() != null) {
+			freq = FrequencyCounter.count(in.file(), myThreads);
+		}
+		else {
+			freq = new long[ALPH_SIZE + 1];
+			while (true) {
 				int bit = in.readBits(BITS_PER_WORD);
-				if (bit == -1) break; 
+				if (bit == -1) break;
 				freq[bit]++;
+			}
 		}
-		in.reset();	
 		freq[PSEUDO_EOF] = 1;
-		return freq;
+		return FrequencyCounter.scale(freq);
 	}
 	
-	private HuffNode makeTreeFromCounts(int[] counts) {
-		PriorityQueue<HuffNode> pq = new PriorityQueue<>();
-		for (int i = 0; i < ALPH_SIZE + 1; i++) {
-			if (counts[i] > 0) {
-				pq.add(new HuffNode(i,counts[i],null,null));
-			}
+	/**
+	 * Returns the code length of each symbol for the given counts,
+	 * limited to myMaxCodeLength bits if a limit is set
+	 */
+	private int[] codeLengths(int[] counts) {
+		if (myMaxCodeLength > 0) {
+			return CanonicalCode.limitedLengths(counts, myMaxCodeLength);
 		}
-		if (myDebugLevel >= DEBUG_HIGH) {
-			System.out.printf("pq created with %d nodes\n", pq.size());
+		return CanonicalCode.lengthsFromCounts(counts);
+	}
+
+	private void writeCompressedBits(long[] codes, int[] lengths, long size, BitInputStream in, BitOutputStream out) {
+		HuffPairTable pairs = pairTable(codes, lengths, size);
+		CodeWriter writer = new CodeWriter(out);
+		if (pairs != null) {
+			pairs.encode(in, writer);
 		}
-		
-		while (pq.size() > 1) {
-			HuffNode left = pq.remove();
-			HuffNode right = pq.remove();
-			HuffNode t = new HuffNode(-1,right.myWeight+left.myWeight,left, right);
-			pq.add(t);
+		else {
+			while (true) {
+				int bit = in.readBits(BITS_PER_WORD);
+				if (bit == -1) break;
+				writer.writeCode(codes[bit], lengths[bit]);
+			}
 		}
-		HuffNode root = pq.remove();
-		return root;
+		writer.writeCode(codes[PSEUDO_EOF], lengths[PSEUDO_EOF]);
+		writer.close();
 	}
-	
-	private void makeCodingsFromTree(HuffNode root, String path, String[] encodings) {
-		if (root.myLeft == null && root.myRight == null) {
-			encodings[root.myValue] = path;
-			if (myDebugLevel >= DEBUG_HIGH) {
-				System.out.printf("encoding for %d is %s\n", root.myValue,path);
+
+	/**
+	 * A HUFF_BLOCKS file is HUFF_BLOCKS followed by one frame per
+	 * block and a 0 int. A frame is the number of bytes in the
+	 * block as an int, the block type in 8 bits, the number of bytes
+	 * in the payload as an int, then the payload. A BLOCK_HUFF payload
+	 * is a CanonicalCode length header and the coded bytes ending
+	 * with PSEUDO_EOF; a BLOCK_STORED payload is the block itself.
+	 * <P>
+	 * A BLOCK_HUFF4 payload codes the 4 quarters of the block, the
+	 * first three of (size + 3) / 4 bytes, as 4 byte-aligned sub-streams
+	 * without PSEUDO_EOF. It starts with the number of bytes of each of
+	 * the first three sub-streams as ints and a length header, padded
+	 * to a byte, followed by the sub-streams.
+	 * <P>
+	 * A BLOCK_HUFF_LSB payload is a length header without PSEUDO_EOF,
+	 * padded to a byte, followed by the codes of the block written least
+	 * significant bit first by HuffLsbCode.
+	 * <P>
+	 * The frame headers index the file: the offset of a block in the
+	 * original and in the compressed file is the sum of the sizes and
+	 * payload lengths of the frames before it.
+	 * <P>
+	 * With more than one thread, blocks are encoded on a ForkJoinPool
+	 * while the next blocks are read; at most two blocks per thread
+	 * are held in memory.
+	 */
+	private void compressBlocks(BitInputStream in, BitOutputStream out) {
+		out.writeBits(BITS_PER_INT, HUFF_BLOCKS);
+		ForkJoinPool pool = myThreads > 1 ? new ForkJoinPool(myThreads) : null;
+		int window = 2 * myThreads;
+		ArrayDeque<ForkJoinTask<Block>> pending = new ArrayDeque<>();
+		ArrayDeque<byte[]> spare = new ArrayDeque<>();
+		try {
+			while (true) {
+				byte[] data = spare.isEmpty() ? new byte[myBlockSize] : spare.remove();
+				int size = readBlock(in, data);
+				if (size == 0) break;
+				if (pool == null) {
+					writeBlock(encodeBlock(data, size), out);
+					spare.add(data);
+					continue;
+				}
+				pending.add(pool.submit(() -> encodeBlock(data, size)));
+				if (pending.size() >= window) {
+					spare.add(writeBlock(pending.remove().join(), out));
+				}
 			}
-			return;
+			while (!pending.isEmpty()) {
+				writeBlock(pending.remove().join(), out);
+			}
+		}
+		finally {
+			if (pool != null) pool.shutdownNow();
+		}
+		out.writeBits(BITS_PER_INT, 0);
+		out.close();
+	}
+
+	private int readBlock(BitInputStream in, byte[] data) {
+		return in.readBytes(data, 0, data.length);
+	}
+
+	Block encodeBlock(byte[] data, int size) {
+		int[] freq = FrequencyCounter.scale(FrequencyCounter.count(data, 0, size));
+		if (myLsbFirst) {
+			return encodeLsb(data, size, freq);
+		}
+		if (myInterleaved) {
+			return encodeInterleaved(data, size, freq);
+		}
+		freq[PSEUDO_EOF] = 1;
+		int[] lengths = codeLengths(freq);
+		long[] codes = CanonicalCode.codesFromLengths(lengths);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+		BitOutputStream bits = new BitOutputStream(bytes);
+		CanonicalCode.writeLengths(lengths, bits);
+		CodeWriter writer = new CodeWriter(bits);
+		writeCodes(pairTable(codes, lengths, size), codes, lengths, data, 0, size, writer);
+		writer.writeCode(codes[PSEUDO_EOF], lengths[PSEUDO_EOF]);
+		writer.close();
+		bits.close();
+
+		if (bytes.size() >= size) {
+			return new Block(size, BLOCK_STORED, data, size, data);
+		}
+		return new Block(size, BLOCK_HUFF, bytes.toByteArray(), bytes.size(), data);
+	}
+
+	private Block encodeInterleaved(byte[] data, int size, int[] freq) {
+		int[] lengths = codeLengths(freq);
+		long[] codes = CanonicalCode.codesFromLengths(lengths);
+		HuffPairTable pairs = pairTable(codes, lengths, size);
+		int quarter = (size + STREAMS - 1) / STREAMS;
+		ByteArrayOutputStream[] streams = new ByteArrayOutputStream[STREAMS];
+		for (int s = 0; s < STREAMS; s++) {
+			streams[s] = new ByteArrayOutputStream(quarter);
+			BitOutputStream bits = new BitOutputStream(streams[s]);
+			CodeWriter writer = new CodeWriter(bits);
+			writeCodes(pairs, codes, lengths, data, Math.min(s * quarter, size), Math.min((s + 1) * quarter, size), writer);
+			writer.close();
+			bits.close();
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+		BitOutputStream bits = new BitOutputStream(bytes);
+		for (int s = 0; s < STREAMS - 1; s++) {
+			bits.writeBits(BITS_PER_INT, streams[s].size());
 		}
-		makeCodingsFromTree(root.myLeft, path + "0", encodings);
-		makeCodingsFromTree(root.myRight, path + "1", encodings);
+		CanonicalCode.writeLengths(lengths, bits);
+		bits.close();
+		for (ByteArrayOutputStream stream : streams) {
+			bytes.write(stream.toByteArray(), 0, stream.size());
+		}
+
+		if (bytes.size() >= size) {
+			return new Block(size, BLOCK_STORED, data, size, data);
+		}
+		return new Block(size, BLOCK_HUFF4, bytes.toByteArray(), bytes.size(), data);
+	}
+
+	private Block encodeLsb(byte[] data, int size, int[] freq) {
+		int[] lengths = codeLengths(freq);
+		HuffLsbCode code = new HuffLsbCode(lengths);
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		BitOutputStream bits = new BitOutputStream(header);
+		CanonicalCode.writeLengths(lengths, bits);
+		bits.close();
+		long length = header.size() + code.encodedBytes(freq);
+		if (length >= size) {
+			return new Block(size, BLOCK_STORED, data, size, data);
+		}
+		byte[] payload = new byte[(int) length + Long.BYTES];
+		System.arraycopy(header.toByteArray(), 0, payload, 0, header.size());
+		code.encode(data, size, payload, header.size());
+		return new Block(size, BLOCK_HUFF_LSB, payload, (int) length, data);
+	}
+
+	/**
+	 * Returns the pair table of a code, null when encoding one symbol
+	 * at a time or when fewer than PAIR_TABLE_MIN_SIZE bytes are coded
+	 * @param size is the number of bytes coded with the table
+	 */
+	private HuffPairTable pairTable(long[] codes, int[] lengths, long size) {
+		if (myEncodeMode != ENCODE_PAIRS || size < PAIR_TABLE_MIN_SIZE) {
+			return null;
+		}
+		return new HuffPairTable(codes, lengths);
 	}
 
-	private void writeHeader(HuffNode root, BitOutputStream out) {
-		if (root == null) return;
-		if (root.myRight == null && root.myLeft == null ) {
-			out.writeBits(1, 1);
-			out.writeBits(9, root.myValue);
+	/**
+	 * Write the codes of the bytes of data on [from, to), by pairs if
+	 * pairs is not null
+	 */
+	private static void writeCodes(HuffPairTable pairs, long[] codes, int[] lengths, byte[] data, int from, int to,
+			CodeWriter out) {
+		if (pairs != null) {
+			pairs.encode(data, from, to, out);
 			return;
 		}
-		else {
-			out.writeBits(1, 0);
-			writeHeader(root.myLeft, out);
-			writeHeader(root.myRight, out);
+		for (int k = from; k < to; k++) {
+			int value = data[k] & 0xff;
+			out.writeCode(codes[value], lengths[value]);
 		}
 	}
-	
-	private void writeCompressedBits(String[] codings, BitInputStream in, BitOutputStream out) {
-		while (true) {
-			int bit = in.readBits(BITS_PER_WORD);
-			if (bit == -1) break;
-			String code = codings[bit];
-			out.writeBits(code.length(), Integer.parseInt(code, 2));
+
+	/**
+	 * Write the frame of block to out
+	 * @return the buffer the block was read into, for reuse
+	 */
+	byte[] writeBlock(Block block, BitOutputStream out) {
+		out.writeBits(BITS_PER_INT, block.size);
+		out.writeBits(BITS_PER_WORD, block.type);
+		out.writeBits(BITS_PER_INT, block.length);
+		out.writeBytes(block.payload, 0, block.length);
+		if (myDebugLevel >= DEBUG_HIGH) {
+			System.out.printf("block of %d bytes, type %d, %d bytes payload\n",
+					block.size, block.type, block.length);
 		}
-		String bitlast = codings[PSEUDO_EOF];
-		out.writeBits(bitlast.length(), Integer.parseInt(bitlast, 2));
+		return block.data;
 	}
 	/**
 	 * Decompresses a file. Output file must be identical bit-by-bit to the
@@ -135,53 +514,350 @@ public class HuffProcessor {
 	 */
 	public void decompress(BitInputStream in, BitOutputStream out){
 		int bits = in.readBits(BITS_PER_INT);
-		if (bits != HUFF_TREE) {
+		HuffTree tree;
+		if (bits == HUFF_BLOCKS) {
+			decompressBlocks(in, out);
+			return;
+		}
+		if (bits == HUFF_ADAPTIVE) {
+			new AdaptiveHuffProcessor(myDebugLevel).decodeSymbols(in, out);
+			out.close();
+			return;
+		}
+		if (bits == HUFF_CONTEXT) {
+			ContextModel.read(in).decode(in, out);
+			out.close();
+			return;
+		}
+		if (bits == HUFF_TREE) {
+			tree = HuffTree.readHeader(in);
+		}
+		else if (bits == HUFF_CANON) {
+			tree = HuffTree.fromLengths(CanonicalCode.readLengths(in));
+		}
+		else {
 			throw new HuffException("Illegal header starts with"+bits);
 		}
-		HuffNode root = readTreeHeader(in);
-		readCompressedBits(root, in, out);
+		decodeSymbols(tree, in, out);
 		out.close();
 	}
-	
-	private HuffNode readTreeHeader(BitInputStream in) {
-		int bit = in.readBits(1);
-		if (bit == -1) {
-			throw new HuffException("out of bits in reading tree header");
+
+	private void decodeSymbols(HuffTree tree, BitInputStream in, BitOutputStream out) {
+		if (myDecodeMode == DECODE_TABLE) {
+			HuffDecodeTable table = new HuffDecodeTable(tree);
+			if (myDebugLevel >= DEBUG_HIGH) {
+				System.out.printf("decode table has %d entries\n", table.size());
+			}
+			table.decode(in, out);
 		}
-		if (bit == 0) {
-			HuffNode left = readTreeHeader(in);
-			HuffNode right = readTreeHeader(in);
-			HuffNode node = new HuffNode(0, 0, left, right);
-			return node;
+		else if (myDecodeMode == DECODE_AUTOMATON) {
+			HuffAutomaton automaton = new HuffAutomaton(tree);
+			if (myDebugLevel >= DEBUG_HIGH) {
+				System.out.printf("decode automaton has %d states\n", automaton.states());
+			}
+			automaton.decode(in, out);
+		}
+		else if (myDecodeMode == DECODE_MULTI) {
+			new HuffMultiTable(tree).decode(in, out);
 		}
 		else {
-			int value = in.readBits(9);
-			HuffNode node = new HuffNode(value, 0, null, null);
-			return node;
+			readCompressedBits(tree, in, out);
+		}
+	}
+
+	/**
+	 * Decode the frames of a HUFF_BLOCKS file. Frames are read in
+	 * groups of up to one per thread; the sizes in their headers give
+	 * each block its slice of the group's output buffer, and blocks are
+	 * decoded into their slices in parallel. The next group is read
+	 * while a group decodes and is decoding while the group is written,
+	 * so at most two blocks per thread are held in memory.
+	 */
+	private void decompressBlocks(BitInputStream in, BitOutputStream out) {
+		ForkJoinPool pool = myThreads > 1 ? new ForkJoinPool(myThreads) : null;
+		FrameGroup current = new FrameGroup();
+		FrameGroup next = new FrameGroup();
+		try {
+			Block frame = current.read(in, readFrame(in));
+			current.decode(pool);
+			while (!current.isEmpty()) {
+				frame = next.read(in, frame);
+				next.decode(pool);
+				current.write(out);
+				FrameGroup written = current;
+				current = next;
+				next = written;
+			}
+		}
+		finally {
+			if (pool != null) pool.shutdownNow();
+		}
+		out.close();
+	}
+
+	/**
+	 * Frames of a HUFF_BLOCKS file decoded together into one buffer
+	 */
+	private class FrameGroup {
+		private final ArrayList<Block> myBlocks = new ArrayList<>();
+		private final ArrayList<ForkJoinTask<?>> myTasks = new ArrayList<>();
+		private byte[] myOutput = new byte[0];
+		private int mySize;
+
+		/**
+		 * Read the frames from next on, up to myThreads of them and no
+		 * more than fit in one array
+		 * @param next is the first frame of the group, already read
+		 * @return the first frame after the group, null after the
+		 * last frame
+		 */
+		Block read(BitInputStream in, Block next) {
+			myBlocks.clear();
+			myTasks.clear();
+			long total = 0;
+			while (next != null && myBlocks.size() < myThreads
+					&& total + next.size <= MAX_ARRAY_SIZE) {
+				myBlocks.add(next);
+				total += next.size;
+				next = readFrame(in);
+			}
+			if (myOutput.length < total) {
+				myOutput = new byte[(int) total];
+			}
+			mySize = (int) total;
+			return next;
+		}
+
+		/**
+		 * Decode the blocks into their slices, on pool unless it is null
+		 */
+		void decode(ForkJoinPool pool) {
+			byte[] slices = myOutput;
+			int offset = 0;
+			for (Block block : myBlocks) {
+				int start = offset;
+				if (pool == null) {
+					decodeBlock(block, slices, start);
+				}
+				else {
+					myTasks.add(pool.submit(() -> decodeBlock(block, slices, start)));
+				}
+				offset += block.size;
+			}
+		}
+
+		/**
+		 * Wait for the blocks to be decoded and write them to out
+		 */
+		void write(BitOutputStream out) {
+			for (ForkJoinTask<?> task : myTasks) {
+				task.join();
+			}
+			out.writeBytes(myOutput, 0, mySize);
+		}
+
+		boolean isEmpty() {
+			return myBlocks.isEmpty();
+		}
+	}
+
+	/**
+	 * Read the next frame of a HUFF_BLOCKS file
+	 * @return the block of the frame, null after the last frame
+	 */
+	Block readFrame(BitInputStream in) {
+		int size = in.readBits(BITS_PER_INT);
+		if (size == 0) return null;
+		int type = in.readBits(BITS_PER_WORD);
+		int length = in.readBits(BITS_PER_INT);
+		if (size < 0 || size > MAX_ARRAY_SIZE || type == -1 || length < 0 || length > MAX_ARRAY_SIZE) {
+			throw new HuffException("bad block frame");
+		}
+		byte[] payload = new byte[length];
+		if (in.readBytes(payload, 0, length) != length) {
+			throw new HuffException("out of bits in reading block");
+		}
+		return new Block(size, type, payload, length, null);
+	}
+
+	/**
+	 * Decode block into dst[off] through dst[off + block.size - 1].
+	 * Blocks are always decoded with a HuffDecodeTable, or the table of
+	 * a HuffLsbCode for BLOCK_HUFF_LSB blocks.
+	 */
+	void decodeBlock(Block block, byte[] dst, int off) {
+		if (block.type == BLOCK_STORED) {
+			if (block.length != block.size) {
+				throw new HuffException("stored block of wrong size");
+			}
+			System.arraycopy(block.payload, 0, dst, off, block.size);
+			return;
+		}
+		if (block.type == BLOCK_HUFF4) {
+			decodeInterleaved(block, dst, off);
+			return;
+		}
+		if (block.type == BLOCK_HUFF_LSB) {
+			BitInputStream header = new BitInputStream(new ByteArrayInputStream(block.payload, 0, block.length));
+			int[] lengths = CanonicalCode.readLengths(header);
+			int start = (int) ((header.bitsRead() + BITS_PER_WORD - 1) / BITS_PER_WORD);
+			if (start > block.length) {
+				throw new HuffException("bad LSB block");
+			}
+			new HuffLsbCode(lengths).decode(block.payload, start, block.length, dst, off, block.size);
+			return;
+		}
+		if (block.type != BLOCK_HUFF) {
+			throw new HuffException("unknown block type " + block.type);
+		}
+		BitInputStream in = new BitInputStream(new ByteArrayInputStream(block.payload, 0, block.length));
+		HuffDecodeTable table = new HuffDecodeTable(HuffTree.fromLengths(CanonicalCode.readLengths(in)));
+		int count = table.decode(in, dst, off, block.size);
+		if (count != block.size || table.decode(in, dst, off, 1) != -1) {
+			throw new HuffException("block decoded to wrong size");
 		}
 	}
 	
-	private void readCompressedBits(HuffNode root, BitInputStream in, BitOutputStream out) {
-		HuffNode current = root;
+	/**
+	 * Decode the 4 sub-streams of a BLOCK_HUFF4 block into the 4
+	 * quarters of dst[off] through dst[off + block.size - 1], straight
+	 * from the payload. Each step loads a 64-bit window of each
+	 * sub-stream and decodes as many symbols from each as the window
+	 * is sure to hold, so the 4 chains of lookups are independent and
+	 * overlap; the rest of the first three sub-streams is decoded after.
+	 */
+	private void decodeInterleaved(Block block, byte[] dst, int off) {
+		BitInputStream header = new BitInputStream(new ByteArrayInputStream(block.payload, 0, block.length));
+		int[] ends = new int[STREAMS];
+		int last = block.length;
+		for (int s = 0; s < STREAMS - 1; s++) {
+			ends[s] = header.readBits(BITS_PER_INT);
+			if (ends[s] < 0) {
+				throw new HuffException("bad interleaved block");
+			}
+			last -= ends[s];
+		}
+		int[] lengths = CanonicalCode.readLengths(header);
+		int start = (int) ((header.bitsRead() + BITS_PER_WORD - 1) / BITS_PER_WORD);
+		ends[STREAMS - 1] = last - start;
+		if (ends[STREAMS - 1] < 0 || lengths[PSEUDO_EOF] != 0) {
+			throw new HuffException("bad interleaved block");
+		}
+		HuffDecodeTable table = new HuffDecodeTable(HuffTree.fromLengths(lengths));
+		if (table.maxLength() > HuffDecodeTable.LOAD_BITS) {
+			throw new HuffException("bad interleaved block, code too long");
+		}
+
+		long[] positions = new long[STREAMS];
+		for (int s = 0; s < STREAMS; s++) {
+			positions[s] = (long) start * BITS_PER_WORD;
+			start += ends[s];
+			ends[s] = start;
+		}
+		byte[] src = block.payload;
+		int quarter = (block.size + STREAMS - 1) / STREAMS;
+		int common = Math.max(0, block.size - (STREAMS - 1) * quarter);
+		int step = HuffDecodeTable.LOAD_BITS / table.maxLength();
+		int off1 = off + quarter, off2 = off + 2 * quarter, off3 = off + 3 * quarter;
+		int end0 = ends[0], end1 = ends[1], end2 = ends[2], end3 = ends[3];
+		long pos0 = positions[0], pos1 = positions[1], pos2 = positions[2], pos3 = positions[3];
+		for (int k = 0; k < common; k += step) {
+			int stop = Math.min(k + step, common);
+			long bits0 = HuffDecodeTable.load(src, pos0, end0);
+			long bits1 = HuffDecodeTable.load(src, pos1, end1);
+			long bits2 = HuffDecodeTable.load(src, pos2, end2);
+			long bits3 = HuffDecodeTable.load(src, pos3, end3);
+			int used0 = 0, used1 = 0, used2 = 0, used3 = 0;
+			for (int j = k; j < stop; j++) {
+				int entry0 = table.lookup(bits0 << used0);
+				int entry1 = table.lookup(bits1 << used1);
+				int entry2 = table.lookup(bits2 << used2);
+				int entry3 = table.lookup(bits3 << used3);
+				dst[off + j] = (byte) entry0;
+				dst[off1 + j] = (byte) entry1;
+				dst[off2 + j] = (byte) entry2;
+				dst[off3 + j] = (byte) entry3;
+				used0 += entry0 >>> HuffDecodeTable.LENGTH_SHIFT;
+				used1 += entry1 >>> HuffDecodeTable.LENGTH_SHIFT;
+				used2 += entry2 >>> HuffDecodeTable.LENGTH_SHIFT;
+				used3 += entry3 >>> HuffDecodeTable.LENGTH_SHIFT;
+			}
+			pos0 += used0;
+			pos1 += used1;
+			pos2 += used2;
+			pos3 += used3;
+		}
+		positions[0] = pos0;
+		positions[1] = pos1;
+		positions[2] = pos2;
+		positions[3] = pos3;
+
+		for (int s = 0; s < STREAMS; s++) {
+			int end = Math.min((s + 1) * quarter, block.size) - s * quarter;
+			long position = positions[s];
+			for (int k = common; k < end; k += step) {
+				int stop = Math.min(k + step, end);
+				long bits = HuffDecodeTable.load(src, position, ends[s]);
+				int used = 0;
+				for (int j = k; j < stop; j++) {
+					int entry = table.lookup(bits << used);
+					dst[off + s * quarter + j] = (byte) entry;
+					used += entry >>> HuffDecodeTable.LENGTH_SHIFT;
+				}
+				position += used;
+			}
+			long endBits = (long) ends[s] * BITS_PER_WORD;
+			if (position > endBits || endBits - position >= BITS_PER_WORD) {
+				throw new HuffException("sub-stream decoded to wrong size");
+			}
+		}
+	}
+
+	private void readCompressedBits(HuffTree tree, BitInputStream in, BitOutputStream out) {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int count = 0;
+		int current = HuffTree.ROOT;
 		while (true) {
 			int bits = in.readBits(1);
 			if (bits == -1) {
 				throw new HuffException("bad input, no PSEUDO_EOF");
 			}
 			else {
-				if (bits == 0) current = current.myLeft;
-				else current = current.myRight;
+				current = tree.child(current, bits);
 				
-				if (current.myRight == null && current.myLeft == null) {
-					if (current.myValue == PSEUDO_EOF) {
+				if (HuffTree.isLeaf(current)) {
+					if (HuffTree.symbol(current) == PSEUDO_EOF) {
 						break;
 					}
 					else {
-						out.writeBits(BITS_PER_WORD, current.myValue);
-						current = root;
+						chunk[count++] = (byte) HuffTree.symbol(current);
+						if (count == CHUNK_SIZE) {
+							out.writeBytes(chunk, 0, count);
+							count = 0;
+						}
+						current = HuffTree.ROOT;
 					}
 				}
 			}
 		}
+		out.writeBytes(chunk, 0, count);
+	}
+
+	/**
+	 * One block of the HUFF_BLOCKS format: size bytes of input, read
+	 * into data when compressing, stored as the first length bytes
+	 * of payload
+	 */
+	static class Block {
+		final int size, type, length;
+		final byte[] payload, data;
+
+		Block(int size, int type, byte[] payload, int length, byte[] data) {
+			this.size = size;
+			this.type = type;
+			this.payload = payload;
+			this.length = length;
+			this.data = data;
+		}
 	}
 }
\ No newline at end of file
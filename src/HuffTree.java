@@ -0,0 +1,216 @@
+import java.util.Arrays;
+
+/**
+ * Huffman tree stored in an int array instead of linked HuffNodes.
+ * Internal nodes are numbered from 0, the root, and every child is
+ * numbered higher than its parent. The children of internal node k
+ * are myChild[2 * k] (left, bit 0) and myChild[2 * k + 1] (right,
+ * bit 1); a child is either the number of an internal node or, if
+ * negative, a leaf holding ~child as its symbol.
+ * <P>
+ * A tree of n leaves takes 2n - 2 ints, and walking it reads one
+ * array instead of chasing object references.
+ */
+
+public class HuffTree {
+
+	public static final int ROOT = 0;
+
+	private static final int INITIAL_NODES = HuffProcessor.ALPH_SIZE;
+
+	private int[] myChild;
+	private int mySize;
+
+	private HuffTree(int nodes) {
+		myChild = new int[2 * Math.max(1, nodes)];
+		mySize = 0;
+	}
+
+	/**
+	 * Build the tree of the canonical code with the given lengths
+	 * @param lengths is the code length of each symbol, 0 if unused
+	 * @return the tree
+	 * @throws HuffException if the lengths do not describe a complete
+	 * prefix code
+	 */
+	public static HuffTree fromLengths(int[] lengths) {
+		long[] codes = CanonicalCode.codesFromLengths(lengths);
+		int leaves = 0;
+		for (int len : lengths) {
+			if (len > 0) leaves++;
+		}
+		HuffTree tree = new HuffTree(leaves - 1);
+		tree.newNode();
+		for (int symbol = 0; symbol < lengths.length; symbol++) {
+			if (lengths[symbol] > 0) {
+				tree.insert(codes[symbol], lengths[symbol], symbol);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Copy a linked tree of HuffNodes
+	 * @param root is the root of the tree, not a leaf
+	 * @return the tree
+	 */
+	public static HuffTree fromNode(HuffNode root) {
+		if (root.myLeft == null && root.myRight == null) {
+			throw new HuffException("tree has no internal node");
+		}
+		HuffTree tree = new HuffTree(INITIAL_NODES);
+		tree.copy(root);
+		return tree;
+	}
+
+	/**
+	 * Read a tree written by writeHeader: the tree in preorder, an
+	 * internal node as a 0 bit and a leaf as a 1 bit followed by its
+	 * symbol in 9 bits.
+	 * @param in is the source of the header
+	 * @return the tree
+	 * @throws HuffException if in runs out or the tree is a single leaf
+	 */
+	public static HuffTree readHeader(BitInputStream in) {
+		HuffTree tree = new HuffTree(INITIAL_NODES);
+		if (tree.readNode(in) < 0) {
+			throw new HuffException("tree header has no internal node");
+		}
+		return tree;
+	}
+
+	/**
+	 * Write this tree in preorder, the format read by readHeader
+	 * @param out is where the header is written
+	 */
+	public void writeHeader(BitOutputStream out) {
+		writeNode(ROOT, out);
+	}
+
+	/**
+	 * Store the code and code length of each leaf
+	 * @param codes is filled with the code of each symbol in the
+	 * lengths[symbol] right-most bits
+	 * @param lengths is filled with the depth of each symbol, entries
+	 * of symbols not in the tree are left unchanged
+	 */
+	public void fillCodes(long[] codes, int[] lengths) {
+		fillCodes(ROOT, 0, 0, codes, lengths);
+	}
+
+	/**
+	 * Returns the child of an internal node
+	 * @param node is the number of an internal node
+	 * @param bit is 0 for the left child, 1 for the right child
+	 * @return the number of the child, negative for a leaf
+	 */
+	public int child(int node, int bit) {
+		return myChild[2 * node + bit];
+	}
+
+	public static boolean isLeaf(int node) {
+		return node < 0;
+	}
+
+	/**
+	 * Returns the symbol of a leaf child
+	 */
+	public static int symbol(int node) {
+		return ~node;
+	}
+
+	/**
+	 * Returns the number of internal nodes
+	 */
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * Returns the height of every internal node, 1 for a node with two
+	 * leaf children
+	 * @return array indexed by internal node number
+	 */
+	public int[] heights() {
+		int[] heights = new int[mySize];
+		for (int node = mySize - 1; node >= 0; node--) {
+			int left = myChild[2 * node];
+			int right = myChild[2 * node + 1];
+			heights[node] = 1 + Math.max(left < 0 ? 0 : heights[left], right < 0 ? 0 : heights[right]);
+		}
+		return heights;
+	}
+
+	private int newNode() {
+		if (2 * mySize == myChild.length) {
+			myChild = Arrays.copyOf(myChild, 2 * myChild.length);
+		}
+		return mySize++;
+	}
+
+	private void insert(long code, int len, int symbol) {
+		int node = ROOT;
+		for (int k = len - 1; k > 0; k--) {
+			int index = 2 * node + (int) ((code >>> k) & 1);
+			if (myChild[index] == 0) {
+				int child = newNode();
+				myChild[index] = child;
+			}
+			node = myChild[index];
+		}
+		myChild[2 * node + (int) (code & 1)] = ~symbol;
+	}
+
+	private int copy(HuffNode node) {
+		if (node.myLeft == null && node.myRight == null) {
+			return ~node.myValue;
+		}
+		int index = newNode();
+		int left = copy(node.myLeft);
+		myChild[2 * index] = left;
+		int right = copy(node.myRight);
+		myChild[2 * index + 1] = right;
+		return index;
+	}
+
+	private int readNode(BitInputStream in) {
+		int bit = in.readBits(1);
+		if (bit == -1) {
+			throw new HuffException("out of bits in reading tree header");
+		}
+		if (bit == 1) {
+			int value = in.readBits(HuffProcessor.BITS_PER_WORD + 1);
+			if (value == -1) {
+				throw new HuffException("out of bits in reading tree header");
+			}
+			return ~value;
+		}
+		int node = newNode();
+		int left = readNode(in);
+		myChild[2 * node] = left;
+		int right = readNode(in);
+		myChild[2 * node + 1] = right;
+		return node;
+	}
+
+	private void writeNode(int node, BitOutputStream out) {
+		if (node < 0) {
+			out.writeBits(1, 1);
+			out.writeBits(HuffProcessor.BITS_PER_WORD + 1, ~node);
+			return;
+		}
+		out.writeBits(1, 0);
+		writeNode(myChild[2 * node], out);
+		writeNode(myChild[2 * node + 1], out);
+	}
+
+	private void fillCodes(int node, long path, int length, long[] codes, int[] lengths) {
+		if (node < 0) {
+			codes[~node] = path;
+			lengths[~node] = length;
+			return;
+		}
+		fillCodes(myChild[2 * node], path << 1, length + 1, codes, lengths);
+		fillCodes(myChild[2 * node + 1], (path << 1) | 1, length + 1, codes, lengths);
+	}
+}
@@ -0,0 +1,133 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream decompressing data in the HUFF_BLOCKS format as it is
+ * read, in the same way as an InflaterInputStream. One block at a
+ * time is read from the underlying stream and decoded. Truncated or
+ * corrupt data and failures of the underlying stream are thrown as
+ * IOExceptions.
+ */
+
+public class HuffmanInputStream extends FilterInputStream {
+
+	private final HuffProcessor myProcessor;
+	private final BitInputStream myBits;
+	private byte[] myBuffer;
+	private int myPosition, myLimit;
+	private boolean myEnd;
+
+	/**
+	 * Create a stream decompressing the data read from in
+	 * @param in is the source of compressed data
+	 * @throws HuffException if in doesn't start with HUFF_BLOCKS
+	 */
+	public HuffmanInputStream(InputStream in) {
+		super(in);
+		myProcessor = new HuffProcessor();
+		myBits = new BitInputStream(in);
+		myBuffer = new byte[0];
+		int bits = myBits.readBits(HuffProcessor.BITS_PER_INT);
+		if (bits != HuffProcessor.HUFF_BLOCKS) {
+			throw new HuffException("Illegal header starts with"+bits);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (myPosition == myLimit && !fill()) {
+			return -1;
+		}
+		return myBuffer[myPosition++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] data, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > data.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (myPosition == myLimit && !fill()) {
+			return -1;
+		}
+		int count = Math.min(len, myLimit - myPosition);
+		System.arraycopy(myBuffer, myPosition, data, off, count);
+		myPosition += count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			if (myPosition == myLimit && !fill()) break;
+			int count = (int) Math.min(n - skipped, myLimit - myPosition);
+			myPosition += count;
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Returns the number of decoded bytes that can be read without
+	 * decoding another block
+	 */
+	@Override
+	public int available() throws IOException {
+		return myLimit - myPosition;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int limit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			myBits.close();
+		}
+		catch (RuntimeException e) {
+			throw HuffException.toIOException(e);
+		}
+	}
+
+	/**
+	 * Decode the next block into myBuffer
+	 * @return false if there are no more blocks
+	 * @throws IOException if the underlying stream fails or the data is
+	 * truncated or corrupt
+	 */
+	private boolean fill() throws IOException {
+		if (myEnd) return false;
+		try {
+			HuffProcessor.Block block = myProcessor.readFrame(myBits);
+			if (block == null) {
+				myEnd = true;
+				return false;
+			}
+			if (myBuffer.length < block.size) {
+				myBuffer = new byte[block.size];
+			}
+			myProcessor.decodeBlock(block, myBuffer, 0);
+			myPosition = 0;
+			myLimit = block.size;
+			return true;
+		}
+		catch (RuntimeException e) {
+			throw HuffException.toIOException(e);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream compressing the bytes written to it in the HUFF_BLOCKS
+ * format, in the same way as a DeflaterOutputStream. Bytes are collected
+ * into blocks and each full block is compressed and written to the
+ * underlying stream, so only one block is held in memory.
+ * <P>
+ * flush() ends the current block early so that everything written so
+ * far can be decompressed; frequent flushing costs compression.
+ * The output is read by HuffmanInputStream or HuffProcessor.decompress.
+ * Failures of the underlying stream are thrown as IOExceptions.
+ */
+
+public class HuffmanOutputStream extends FilterOutputStream {
+
+	private final HuffProcessor myProcessor;
+	private final BitOutputStream myBits;
+	private final byte[] myBlock;
+	private int mySize;
+	private boolean myFinished;
+
+	/**
+	 * Create a stream compressing in blocks of DEFAULT_BLOCK_SIZE bytes
+	 * @param out is where compressed bytes are written
+	 */
+	public HuffmanOutputStream(OutputStream out) {
+		this(out, HuffProcessor.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Create a stream compressing in blocks of blockSize bytes
+	 * @param out is where compressed bytes are written
+	 * @param blockSize is the number of bytes in each block
+	 */
+	public HuffmanOutputStream(OutputStream out, int blockSize) {
+		super(out);
+		if (blockSize < 1) {
+			throw new HuffException("illegal block size " + blockSize);
+		}
+		myProcessor = new HuffProcessor();
+		myBits = new BitOutputStream(out);
+		myBlock = new byte[blockSize];
+		myBits.writeBits(HuffProcessor.BITS_PER_INT, HuffProcessor.HUFF_BLOCKS);
+	}
+
+	@Override
+	public void write(int value) throws IOException {
+		checkOpen();
+		myBlock[mySize++] = (byte) value;
+		if (mySize == myBlock.length) {
+			writeBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] data, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > data.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		checkOpen();
+		while (len > 0) {
+			int count = Math.min(len, myBlock.length - mySize);
+			System.arraycopy(data, off, myBlock, mySize, count);
+			mySize += count;
+			off += count;
+			len -= count;
+			if (mySize == myBlock.length) {
+				writeBlock();
+			}
+		}
+	}
+
+	/**
+	 * Compress the bytes written since the last block and write them
+	 * to the underlying stream, then flush it
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (!myFinished) {
+			writeBlock();
+			try {
+				myBits.flush();
+			}
+			catch (RuntimeException e) {
+				throw HuffException.toIOException(e);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Write the remaining bytes and the end of the compressed data
+	 * without closing the underlying stream
+	 */
+	public void finish() throws IOException {
+		if (myFinished) return;
+		writeBlock();
+		try {
+			myBits.writeBits(HuffProcessor.BITS_PER_INT, 0);
+			myBits.flush();
+		}
+		catch (RuntimeException e) {
+			throw HuffException.toIOException(e);
+		}
+		myFinished = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		try {
+			myBits.close();
+		}
+		catch (RuntimeException e) {
+			throw HuffException.toIOException(e);
+		}
+	}
+
+	/**
+	 * Compress the bytes written since the last block, if any, and write
+	 * their frame to myBits
+	 * @throws IOException if the underlying stream fails
+	 */
+	private void writeBlock() throws IOException {
+		if (mySize == 0) return;
+		try {
+			myProcessor.writeBlock(myProcessor.encodeBlock(myBlock, mySize), myBits);
+		}
+		catch (RuntimeException e) {
+			throw HuffException.toIOException(e);
+		}
+		mySize = 0;
+	}
+
+	private void checkOpen() throws IOException {
+		if (myFinished) {
+			throw new IOException("write beyond end of stream");
+		}
+	}
+}
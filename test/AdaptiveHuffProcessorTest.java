@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trips of AdaptiveHuffProcessor on the files of the data
+ * directory and on tiny input, decoded by AdaptiveHuffProcessor and by
+ * HuffProcessor.decompress, and with a reset weight small enough that
+ * the tree starts over several times.
+ */
+
+class AdaptiveHuffProcessorTest {
+
+	@Test
+	void roundTripFiles() throws IOException {
+		AdaptiveHuffProcessor processor = new AdaptiveHuffProcessor();
+		for (File file : HuffProcessorTest.dataFiles()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			assertArrayEquals(data, decompress(processor, compress(processor, data)), file.getName());
+		}
+	}
+
+	@Test
+	void emptyAndOneByte() {
+		AdaptiveHuffProcessor processor = new AdaptiveHuffProcessor();
+		for (byte[] data : new byte[][] {{}, {'a'}, {(byte) 0xff}}) {
+			assertArrayEquals(data, decompress(processor, compress(processor, data)), "length " + data.length);
+		}
+	}
+
+	@Test
+	void decodedByHuffProcessor() throws IOException {
+		AdaptiveHuffProcessor processor = new AdaptiveHuffProcessor();
+		HuffProcessor huff = new HuffProcessor();
+		for (File file : HuffProcessorTest.dataFiles()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			assertArrayEquals(data, HuffProcessorTest.decompress(huff, compress(processor, data)), file.getName());
+		}
+		assertArrayEquals(new byte[0], HuffProcessorTest.decompress(huff, compress(processor, new byte[0])));
+	}
+
+	/**
+	 * With a reset weight of 100 the tree starts over every 100 symbols,
+	 * so every value is sent as a new symbol again after each reset and
+	 * the output is larger than without resets
+	 */
+	@Test
+	void treeResets() {
+		byte[] data = new byte[5000];
+		Random random = new Random(1);
+		for (int k = 0; k < data.length; k++) {
+			data[k] = (byte) ('a' + Math.min(random.nextInt(26), random.nextInt(26)));
+		}
+		AdaptiveHuffProcessor resetting = new AdaptiveHuffProcessor(0, 100);
+		byte[] compressed = compress(resetting, data);
+		assertArrayEquals(data, decompress(resetting, compressed));
+		assertTrue(compressed.length > compress(new AdaptiveHuffProcessor(), data).length);
+
+		for (int resetWeight : new int[] {1, 2, 3, 257}) {
+			AdaptiveHuffProcessor processor = new AdaptiveHuffProcessor(0, resetWeight);
+			byte[] same = new byte[600];
+			Arrays.fill(same, (byte) 'a');
+			for (byte[] input : new byte[][] {{}, {'a'}, same, data}) {
+				assertArrayEquals(input, decompress(processor, compress(processor, input)), "reset weight " + resetWeight);
+			}
+		}
+	}
+
+	@Test
+	void truncatedInput() {
+		AdaptiveHuffProcessor processor = new AdaptiveHuffProcessor();
+		byte[] compressed = compress(processor, "hello world".getBytes());
+		byte[] truncated = Arrays.copyOf(compressed, compressed.length - 2);
+		assertThrows(HuffException.class, () -> decompress(processor, truncated));
+	}
+
+	private static byte[] compress(AdaptiveHuffProcessor processor, byte[] data) {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		processor.compress(new BitInputStream(new ByteArrayInputStream(data)), new BitOutputStream(compressed));
+		return compressed.toByteArray();
+	}
+
+	private static byte[] decompress(AdaptiveHuffProcessor processor, byte[] compressed) {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		processor.decompress(new BitInputStream(new ByteArrayInputStream(compressed)), new BitOutputStream(data));
+		return data.toByteArray();
+	}
+}
@@ -0,0 +1,158 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of BitInputStream reading an array, a file and a mapped file:
+ * bytes read with readBytes, at and off byte boundaries, must be those
+ * readBits(8) returns. Mapped files are read in small segments so
+ * reads cross from one segment to the next.
+ */
+
+class BitInputStreamTest {
+
+	private static final int SIZE = 100000;
+
+	@TempDir
+	Path myDir;
+
+	@Test
+	void readBytesFromArray() {
+		byte[] data = randomBytes(SIZE);
+		checkReadBytes(() -> new BitInputStream(new ByteArrayInputStream(data)));
+	}
+
+	@Test
+	void readBytesFromFile() throws IOException {
+		byte[] data = randomBytes(SIZE);
+		Path path = write(data);
+		checkReadBytes(() -> new BitInputStream(path.toFile()));
+		checkReadBytes(() -> new BitInputStream(path));
+	}
+
+	@Test
+	void mappedAcrossSegments() throws IOException {
+		byte[] data = randomBytes(SIZE / 4);
+		Path path = write(data);
+		for (int mapSize : new int[] {7, 4096, 8195}) {
+			BitInputStream in = new BitInputStream(path, mapSize);
+			assertArrayEquals(data, readAll(in), "segments of " + mapSize);
+			in.close();
+			checkReadBytes(() -> new BitInputStream(path, mapSize));
+		}
+	}
+
+	/**
+	 * reset() after reading into later segments goes back to the first,
+	 * which stays mapped
+	 */
+	@Test
+	void mappedResetAfterPartialRead() throws IOException {
+		byte[] data = randomBytes(SIZE);
+		Path path = write(data);
+		BitInputStream in = new BitInputStream(path, 1000);
+		assertTrue(in.markSupported());
+		for (int bits : new int[] {5, 8 * 2500 + 3, 8 * SIZE}) {
+			for (int k = 0; k < bits; k++) {
+				in.readBits(1);
+			}
+			in.reset();
+			assertEquals(0, in.bitsRead());
+			assertArrayEquals(data, readAll(in), "reset after " + bits + " bits");
+			in.reset();
+		}
+		in.close();
+	}
+
+	@Test
+	void mappedEmptyFile() throws IOException {
+		Path path = write(new byte[0]);
+		BitInputStream in = new BitInputStream(path);
+		assertEquals(-1, in.readBits(1));
+		assertEquals(0, in.readBytes(new byte[10], 0, 10));
+		in.reset();
+		assertEquals(-1, in.readBits(HuffProcessor.BITS_PER_WORD));
+		assertEquals(0, in.bitsRead());
+		in.close();
+	}
+
+	/**
+	 * Returns the bytes of in from where it stands, read with readBits
+	 * of random widths
+	 */
+	private static byte[] readAll(BitInputStream in) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Random random = new Random(1);
+		while (true) {
+			int numBits = HuffProcessor.BITS_PER_WORD * (1 + random.nextInt(4));
+			int value = in.readBits(numBits);
+			if (value == -1) break;
+			for (int shift = numBits - HuffProcessor.BITS_PER_WORD; shift >= 0; shift -= HuffProcessor.BITS_PER_WORD) {
+				bytes.write(value >>> shift);
+			}
+		}
+		while (true) {
+			int value = in.readBits(HuffProcessor.BITS_PER_WORD);
+			if (value == -1) break;
+			bytes.write(value);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read data in runs of random lengths, some longer than the buffer,
+	 * with a few bits read with readBits between runs
+	 */
+	private static void checkReadBytes(Supplier<BitInputStream> open) {
+		for (int seed = 0; seed < 10; seed++) {
+			Random random = new Random(seed);
+			BitInputStream in = open.get();
+			BitInputStream reference = open.get();
+			while (true) {
+				if (random.nextInt(4) == 0) {
+					int numBits = 1 + random.nextInt(HuffProcessor.BITS_PER_INT);
+					int value = in.readBits(numBits);
+					assertEquals(reference.readBits(numBits), value);
+					if (value == -1) break;
+				}
+				int len = random.nextInt(random.nextBoolean() ? 100 : 3 * SIZE / 10);
+				byte[] bytes = new byte[len + 2];
+				int count = in.readBytes(bytes, 1, len);
+				byte[] expected = new byte[len + 2];
+				int expectedCount = 0;
+				for (; expectedCount < len; expectedCount++) {
+					int value = reference.readBits(HuffProcessor.BITS_PER_WORD);
+					if (value == -1) break;
+					expected[1 + expectedCount] = (byte) value;
+				}
+				assertEquals(expectedCount, count);
+				assertArrayEquals(expected, bytes);
+				assertEquals(reference.bitsRead(), in.bitsRead());
+				if (count < len) break;
+			}
+			in.close();
+			reference.close();
+		}
+	}
+
+	private Path write(byte[] data) throws IOException {
+		Path path = Files.createTempFile(myDir, "bits", ".bin");
+		Files.write(path, data);
+		return path;
+	}
+
+	private static byte[] randomBytes(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+}
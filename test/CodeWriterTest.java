@@ -0,0 +1,175 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of CodeWriter and of the BitOutputStream it continues: random
+ * sequences of writeBits, writeBytes and CodeWriter runs are compared
+ * bit for bit with the same bits appended one at a time, for each kind
+ * of BitOutputStream. Some CodeWriter runs fill its buffer more than
+ * once.
+ */
+
+class CodeWriterTest {
+
+	private static final int SEEDS = 30;
+	private static final int MAX_OPERATIONS = 2000;
+
+	@TempDir
+	Path myDir;
+
+	@Test
+	void interleavedWritesToOutputStream() {
+		for (int seed = 0; seed < SEEDS; seed++) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] expected = writeRandom(new BitOutputStream(bytes), new Random(seed));
+			assertArrayEquals(expected, bytes.toByteArray(), "seed " + seed);
+		}
+	}
+
+	@Test
+	void interleavedWritesToMappedFile() throws IOException {
+		for (int seed = 0; seed < SEEDS; seed++) {
+			Path path = myDir.resolve("mapped" + seed);
+			byte[] expected = writeRandom(new BitOutputStream(path), new Random(seed));
+			assertArrayEquals(expected, Files.readAllBytes(path), "seed " + seed);
+		}
+	}
+
+	@Test
+	void interleavedWritesToSmallBuffers() throws IOException {
+		for (int seed = 0; seed < SEEDS; seed++) {
+			File single = myDir.resolve("single" + seed).toFile();
+			byte[] expected = writeRandom(new BitOutputStream(single, 24, false), new Random(seed));
+			assertArrayEquals(expected, Files.readAllBytes(single.toPath()), "seed " + seed);
+			File doubled = myDir.resolve("double" + seed).toFile();
+			expected = writeRandom(new BitOutputStream(doubled, 40, true), new Random(seed));
+			assertArrayEquals(expected, Files.readAllBytes(doubled.toPath()), "seed " + seed);
+		}
+	}
+
+	@Test
+	void longCodesReadBack() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BitOutputStream out = new BitOutputStream(bytes);
+		out.writeBits(3, 5);
+		CodeWriter writer = new CodeWriter(out);
+		Random random = new Random(1);
+		long[] codes = new long[CanonicalCode.MAX_CODE_LENGTH + 1];
+		for (int length = 1; length <= CanonicalCode.MAX_CODE_LENGTH; length++) {
+			codes[length] = random.nextLong() >>> (Long.SIZE - length);
+			writer.writeCode(codes[length], length);
+		}
+		writer.close();
+		out.close();
+
+		BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(5, in.readBits(3));
+		for (int length = 1; length <= CanonicalCode.MAX_CODE_LENGTH; length++) {
+			long code = 0;
+			int left = length;
+			while (left > 0) {
+				int bits = Math.min(left, HuffProcessor.BITS_PER_INT - 1);
+				code = (code << bits) | in.readBits(bits);
+				left -= bits;
+			}
+			assertEquals(codes[length], code, "length " + length);
+		}
+	}
+
+	@Test
+	void writeCodeRejectsMissingCode() {
+		CodeWriter writer = new CodeWriter(new BitOutputStream(new ByteArrayOutputStream()));
+		assertThrows(HuffException.class, () -> writer.writeCode(0, 0));
+	}
+
+	/**
+	 * Write random bits to out, close it, and return the bytes it should
+	 * hold
+	 */
+	private static byte[] writeRandom(BitOutputStream out, Random random) {
+		Reference expected = new Reference();
+		int operations = random.nextInt(MAX_OPERATIONS);
+		for (int k = 0; k < operations; k++) {
+			if (random.nextInt(10) == 0) {
+				CodeWriter writer = new CodeWriter(out);
+				int codes = random.nextInt(random.nextInt(10) == 0 ? 20000 : 50);
+				for (int c = 0; c < codes; c++) {
+					int length = 1 + random.nextInt(random.nextInt(4) == 0 ? CanonicalCode.MAX_CODE_LENGTH : HuffProcessor.BITS_PER_INT);
+					long code = random.nextLong() >>> (Long.SIZE - length);
+					if (length <= HuffProcessor.BITS_PER_INT && random.nextBoolean()) {
+						writer.write(code, length);
+					}
+					else {
+						writer.writeCode(code, length);
+					}
+					expected.append(code, length);
+				}
+				writer.close();
+			}
+			else if (random.nextInt(4) == 0) {
+				byte[] data = new byte[random.nextInt(random.nextBoolean() ? 10 : 200)];
+				random.nextBytes(data);
+				int off = data.length == 0 ? 0 : random.nextInt(data.length);
+				int len = random.nextInt(data.length - off + 1);
+				out.writeBytes(data, off, len);
+				for (int j = off; j < off + len; j++) {
+					expected.append(data[j] & 0xff, HuffProcessor.BITS_PER_WORD);
+				}
+			}
+			else {
+				int numBits = random.nextInt(3) == 0 ? 8 * (1 + random.nextInt(4)) : 1 + random.nextInt(HuffProcessor.BITS_PER_INT);
+				int value = random.nextInt();
+				out.writeBits(numBits, value);
+				expected.append(value & 0xffffffffL, numBits);
+			}
+		}
+		assertEquals(expected.bitsWritten(), out.bitsWritten());
+		out.close();
+		return expected.toByteArray();
+	}
+
+	/**
+	 * The bits written, appended one at a time
+	 */
+	private static class Reference {
+		private final ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+		private int myByte;
+		private long myBits;
+
+		void append(long value, int numBits) {
+			for (int k = numBits - 1; k >= 0; k--) {
+				myByte = (myByte << 1) | (int) ((value >>> k) & 1);
+				myBits++;
+				if (myBits % HuffProcessor.BITS_PER_WORD == 0) {
+					myBytes.write(myByte);
+					myByte = 0;
+				}
+			}
+		}
+
+		long bitsWritten() {
+			return myBits;
+		}
+
+		/**
+		 * Returns the bits written, the last byte padded with 0s
+		 */
+		byte[] toByteArray() {
+			int partial = (int) (myBits % HuffProcessor.BITS_PER_WORD);
+			if (partial != 0) {
+				myBytes.write(myByte << (HuffProcessor.BITS_PER_WORD - partial));
+			}
+			return myBytes.toByteArray();
+		}
+	}
+}
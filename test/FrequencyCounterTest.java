@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of FrequencyCounter: files counted by several threads, and
+ * counts too large for an int scaled down.
+ */
+
+class FrequencyCounterTest {
+
+	/**
+	 * kjv10.txt is over 4MB, so 4 threads count it in 4 ranges
+	 */
+	@Test
+	void fileCountedInParallel() throws IOException {
+		File file = new File(HuffProcessorTest.dataDirectory(), "kjv10.txt");
+		byte[] data = Files.readAllBytes(file.toPath());
+		long[] single = FrequencyCounter.count(file, 1);
+		assertArrayEquals(FrequencyCounter.count(data, 0, data.length), single);
+		assertArrayEquals(single, FrequencyCounter.count(file, 4));
+		assertArrayEquals(single, FrequencyCounter.count(file, 64));
+	}
+
+	@Test
+	void countsThatFitAreNotScaled() {
+		long[] counts = {0, 1, 7, Integer.MAX_VALUE};
+		assertArrayEquals(new int[] {0, 1, 7, Integer.MAX_VALUE}, FrequencyCounter.scale(counts));
+	}
+
+	/**
+	 * The largest count needs a shift of 3 to fit; small counts other
+	 * than 0 stay at 1 so their values keep a code
+	 */
+	@Test
+	void countsAboveIntMaxAreScaled() {
+		long[] counts = new long[HuffProcessor.ALPH_SIZE + 1];
+		counts['a'] = 3L << 32;
+		counts['b'] = Integer.MAX_VALUE + 1L;
+		counts['c'] = 5;
+		counts[HuffProcessor.PSEUDO_EOF] = 1;
+		int[] scaled = FrequencyCounter.scale(counts);
+		assertEquals(3 << 29, scaled['a']);
+		assertEquals(1 << 28, scaled['b']);
+		assertEquals(1, scaled['c']);
+		assertEquals(1, scaled[HuffProcessor.PSEUDO_EOF]);
+		assertEquals(0, scaled['d']);
+
+		int[] lengths = CanonicalCode.lengthsFromCounts(scaled);
+		for (int value : new int[] {'a', 'b', 'c', HuffProcessor.PSEUDO_EOF}) {
+			assertTrue(lengths[value] > 0, "no code for " + value);
+		}
+		assertEquals(0, lengths['d']);
+	}
+
+	@Test
+	void rowsShareOneShift() {
+		long[][] counts = {{1L << 33, 0}, {1L << 20, 3}};
+		int[][] scaled = FrequencyCounter.scale(counts);
+		assertArrayEquals(new int[] {1 << 30, 0}, scaled[0]);
+		assertArrayEquals(new int[] {1 << 17, 1}, scaled[1]);
+	}
+}
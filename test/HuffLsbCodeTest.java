@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of HuffLsbCode on its own, with codes short enough for its
+ * table and longer than BITS_PER_INT, and of BLOCK_HUFF_LSB blocks
+ * compressed and decompressed by HuffProcessor.
+ */
+
+class HuffLsbCodeTest {
+
+	private static final int LONGEST = 35;
+
+	@Test
+	void equalLengths() {
+		int[] lengths = new int[HuffProcessor.ALPH_SIZE + 1];
+		Arrays.fill(lengths, 0, HuffProcessor.ALPH_SIZE, HuffProcessor.BITS_PER_WORD);
+		byte[] data = new byte[10000];
+		new Random(1).nextBytes(data);
+		assertArrayEquals(data, roundTrip(new HuffLsbCode(lengths), data));
+	}
+
+	/**
+	 * Value k has a code of k + 1 bits up to LONGEST, so most codes are
+	 * decoded without the table, some in two stores of encode
+	 */
+	@Test
+	void codesLongerThanTheTable() {
+		int[] lengths = new int[HuffProcessor.ALPH_SIZE + 1];
+		for (int k = 0; k < LONGEST; k++) {
+			lengths[k] = k + 1;
+		}
+		lengths[LONGEST] = LONGEST;
+		Random random = new Random(1);
+		for (int size = 0; size < 200; size++) {
+			byte[] data = new byte[size];
+			for (int k = 0; k < size; k++) {
+				data[k] = (byte) (random.nextBoolean() ? random.nextInt(3) : random.nextInt(LONGEST + 1));
+			}
+			assertArrayEquals(data, roundTrip(new HuffLsbCode(lengths), data), "size " + size);
+		}
+	}
+
+	@Test
+	void truncatedCodes() {
+		int[] lengths = new int[HuffProcessor.ALPH_SIZE + 1];
+		for (int k = 0; k < LONGEST; k++) {
+			lengths[k] = k + 1;
+		}
+		lengths[LONGEST] = LONGEST;
+		HuffLsbCode code = new HuffLsbCode(lengths);
+		byte[] data = new byte[100];
+		Arrays.fill(data, (byte) LONGEST);
+		byte[] encoded = encode(code, data);
+		byte[] decoded = new byte[data.length];
+		assertThrows(HuffException.class, () -> code.decode(encoded, 0, encoded.length - 1, decoded, 0, data.length));
+	}
+
+	@Test
+	void encodeRejectsMissingCode() {
+		int[] lengths = new int[HuffProcessor.ALPH_SIZE + 1];
+		lengths[0] = 1;
+		lengths[1] = 1;
+		HuffLsbCode code = new HuffLsbCode(lengths);
+		byte[] data = {0, 1, 2};
+		assertThrows(HuffException.class, () -> code.encode(data, data.length, new byte[2 * Long.BYTES], 0));
+	}
+
+	@Test
+	void lengthsMustBeACodeOfBytes() {
+		int[] lengths = new int[HuffProcessor.ALPH_SIZE + 1];
+		lengths[0] = 1;
+		assertThrows(HuffException.class, () -> new HuffLsbCode(lengths));
+		lengths[HuffProcessor.PSEUDO_EOF] = 1;
+		assertThrows(HuffException.class, () -> new HuffLsbCode(lengths));
+	}
+
+	@Test
+	void blocksOfFiles() throws IOException {
+		HuffProcessor processor = lsbBlocks();
+		HuffProcessorTest.roundTripFiles(processor);
+		processor.setBlockSize(1000);
+		processor.setThreads(1);
+		HuffProcessorTest.roundTripFiles(processor);
+		processor.setMaxCodeLength(HuffLsbCode.TABLE_BITS);
+		HuffProcessorTest.roundTripFiles(processor);
+	}
+
+	@Test
+	void blocksOfFewValues() {
+		HuffProcessor processor = lsbBlocks();
+		processor.setBlockSize(100);
+		byte[] same = new byte[1000];
+		Arrays.fill(same, (byte) 'a');
+		for (byte[] data : new byte[][] {{}, {'a'}, same}) {
+			assertArrayEquals(data, HuffProcessorTest.roundTrip(processor, data));
+		}
+	}
+
+	@Test
+	void blocksWithLongCodes() {
+		byte[] data = HuffProcessorTest.fibonacciData(HuffProcessorTest.LONG_CODE_VALUES);
+		HuffProcessor processor = lsbBlocks();
+		processor.setBlockSize(data.length);
+		assertArrayEquals(data, HuffProcessorTest.roundTrip(processor, data));
+	}
+
+	@Test
+	void truncatedBlock() throws IOException {
+		byte[] data = new byte[10000];
+		Random random = new Random(1);
+		for (int k = 0; k < data.length; k++) {
+			data[k] = (byte) ('a' + Math.min(random.nextInt(26), random.nextInt(26)));
+		}
+		HuffProcessor processor = lsbBlocks();
+		byte[] compressed = HuffProcessorTest.compress(processor, data);
+		byte[] truncated = Arrays.copyOf(compressed, compressed.length - 1);
+		assertThrows(HuffException.class, () -> HuffProcessorTest.decompress(processor, truncated));
+	}
+
+	private static HuffProcessor lsbBlocks() {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_BLOCKS);
+		processor.setLsbFirst(true);
+		return processor;
+	}
+
+	/**
+	 * Returns data encoded with code in an array of just the bytes
+	 * encode wrote
+	 */
+	private static byte[] encode(HuffLsbCode code, byte[] data) {
+		int[] counts = new int[HuffProcessor.ALPH_SIZE];
+		for (byte value : data) {
+			counts[value & 0xff]++;
+		}
+		byte[] encoded = new byte[(int) code.encodedBytes(counts) + Long.BYTES];
+		int end = code.encode(data, data.length, encoded, 0);
+		assertEquals(encoded.length - Long.BYTES, end);
+		return Arrays.copyOf(encoded, end);
+	}
+
+	private static byte[] roundTrip(HuffLsbCode code, byte[] data) {
+		byte[] encoded = encode(code, data);
+		byte[] decoded = new byte[data.length];
+		code.decode(encoded, 0, encoded.length, decoded, 0, data.length);
+		return decoded;
+	}
+}
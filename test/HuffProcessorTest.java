@@ -0,0 +1,440 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trips of compress and decompress on the files of the data
+ * directory, named by the huff.data property, and on input whose code
+ * is longer than BITS_PER_INT bits. The helpers are shared with the
+ * tests of the other compressed formats.
+ */
+
+class HuffProcessorTest {
+
+	/**
+	 * Number of values in fibonacciData for a longest code of 33 bits
+	 */
+	static final int LONG_CODE_VALUES = 33;
+
+	/**
+	 * HUFF_TREE files of data written before HUFF_CANON, with the length
+	 * and CRC-32 of what they decode to
+	 */
+	private static final String[] LEGACY_FILES = {"hidden1.txt.hf", "hidden2.txt.hf", "mystery.tif.hf"};
+	private static final int[] LEGACY_LENGTHS = {93, 80, 309388};
+	private static final long[] LEGACY_CRCS = {0x2fc45051L, 0x4b9dfed9L, 0x07c16076L};
+
+	@Test
+	void treeFormat() throws IOException {
+		HuffProcessor processor = new HuffProcessor();
+		roundTripFiles(processor);
+		processor.setDecodeMode(HuffProcessor.DECODE_TREE);
+		roundTripFiles(processor);
+	}
+
+	@Test
+	void canonicalFormat() throws IOException {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_CANON);
+		roundTripFiles(processor);
+		processor.setDecodeMode(HuffProcessor.DECODE_TREE);
+		roundTripFiles(processor);
+	}
+
+	@Test
+	void automatonDecoder() throws IOException {
+		checkDecodeMode(HuffProcessor.DECODE_AUTOMATON);
+	}
+
+	@Test
+	void multiSymbolDecoder() throws IOException {
+		checkDecodeMode(HuffProcessor.DECODE_MULTI);
+	}
+
+	@Test
+	void legacyTreeFiles() throws IOException {
+		for (int mode = HuffProcessor.DECODE_TREE; mode <= HuffProcessor.DECODE_MULTI; mode++) {
+			HuffProcessor processor = new HuffProcessor();
+			processor.setDecodeMode(mode);
+			for (int k = 0; k < LEGACY_FILES.length; k++) {
+				File file = new File(dataDirectory(), LEGACY_FILES[k]);
+				byte[] data = decompress(processor, Files.readAllBytes(file.toPath()));
+				CRC32 crc = new CRC32();
+				crc.update(data);
+				assertEquals(LEGACY_LENGTHS[k], data.length, file.getName() + " decode mode " + mode);
+				assertEquals(LEGACY_CRCS[k], crc.getValue(), file.getName() + " decode mode " + mode);
+			}
+		}
+	}
+
+	/**
+	 * Pairs and single symbols give the same output whole-file, in
+	 * blocks big enough for the pair table, and in blocks of 64KB - 1
+	 * bytes written one symbol at a time either way
+	 */
+	@Test
+	void encodeModesWriteTheSameBits() throws IOException {
+		for (File file : dataFiles()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			for (int format : new int[] {HuffProcessor.HUFF_TREE, HuffProcessor.HUFF_CANON}) {
+				assertSameBits(format, HuffProcessor.DEFAULT_BLOCK_SIZE, false, data, file.getName());
+			}
+			for (int blockSize : new int[] {HuffProcessor.DEFAULT_BLOCK_SIZE, (1 << 16) - 1}) {
+				assertSameBits(HuffProcessor.HUFF_BLOCKS, blockSize, false, data, file.getName());
+				assertSameBits(HuffProcessor.HUFF_BLOCKS, blockSize, true, data, file.getName());
+			}
+		}
+		byte[] data = fibonacciData(LONG_CODE_VALUES);
+		assertSameBits(HuffProcessor.HUFF_CANON, HuffProcessor.DEFAULT_BLOCK_SIZE, false, data, "fibonacci");
+	}
+
+	/**
+	 * Limits of 9 bits, the least allowed, and of 11, the root width of the
+	 * decode table, also on fibonacciData whose unlimited codes are 33 bits
+	 */
+	@Test
+	void limitedCodeLength() throws IOException {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_CANON);
+		processor.setMaxCodeLength(HuffProcessor.BITS_PER_WORD + 1);
+		roundTripFiles(processor);
+		processor.setMaxCodeLength(HuffDecodeTable.DEFAULT_ROOT_BITS);
+		roundTripFiles(processor);
+		processor.setDecodeMode(HuffProcessor.DECODE_TREE);
+		roundTripFiles(processor);
+
+		byte[] data = fibonacciData(LONG_CODE_VALUES);
+		processor.setDecodeMode(HuffProcessor.DECODE_TABLE);
+		assertArrayEquals(data, roundTrip(processor, data));
+		int[] lengths = CanonicalCode.limitedLengths(fibonacciCounts(data), HuffDecodeTable.DEFAULT_ROOT_BITS);
+		assertEquals(HuffDecodeTable.DEFAULT_ROOT_BITS, Arrays.stream(lengths).max().getAsInt());
+	}
+
+	@Test
+	void blocksFormat() throws IOException {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_BLOCKS);
+		roundTripFiles(processor);
+		processor.setBlockSize(1000);
+		processor.setThreads(1);
+		roundTripFiles(processor);
+	}
+
+	/**
+	 * Blocks encoded on a pool, more of them than the pool holds at
+	 * once, are written as one thread writes them
+	 */
+	@Test
+	void blocksWithLongCodes() {
+		byte[] data = fibonacciData(LONG_CODE_VALUES);
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_BLOCKS);
+		processor.setBlockSize(data.length);
+		assertArrayEquals(data, roundTrip(processor, data));
+		processor.setEncodeMode(HuffProcessor.ENCODE_SYMBOLS);
+		assertArrayEquals(data, roundTrip(processor, data));
+	}
+
+	@Test
+	void interleavedBlocks() throws IOException {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_BLOCKS);
+		processor.setInterleaved(true);
+		roundTripFiles(processor);
+		processor.setBlockSize(1000);
+		processor.setThreads(1);
+		roundTripFiles(processor);
+		processor.setMaxCodeLength(HuffProcessor.BITS_PER_WORD + 1);
+		roundTripFiles(processor);
+	}
+
+	/**
+	 * Blocks of 0 to 20 bytes leave some of the 4 sub-streams short or
+	 * empty; a block of one value has a single code
+	 */
+	@Test
+	void interleavedSmallBlocks() {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_BLOCKS);
+		processor.setInterleaved(true);
+		Random random = new Random(1);
+		for (int size = 0; size <= 20; size++) {
+			byte[] data = new byte[size];
+			for (int k = 0; k < size; k++) {
+				data[k] = (byte) ('a' + random.nextInt(3));
+			}
+			assertArrayEquals(data, roundTrip(processor, data), "size " + size);
+		}
+		byte[] same = new byte[1001];
+		Arrays.fill(same, (byte) 'a');
+		assertArrayEquals(same, roundTrip(processor, same));
+	}
+
+	@Test
+	void interleavedLongCodes() {
+		byte[] data = fibonacciData(LONG_CODE_VALUES);
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_BLOCKS);
+		processor.setInterleaved(true);
+		processor.setBlockSize(data.length);
+		assertArrayEquals(data, roundTrip(processor, data));
+	}
+
+	/**
+	 * The last byte of a one-block file's payload is dropped and the
+	 * payload length in its frame cut to match, so the last sub-stream
+	 * runs out of bits
+	 */
+	@Test
+	void interleavedTruncated() throws IOException {
+		File file = new File(dataDirectory(), "melville.txt");
+		byte[] data = Files.readAllBytes(file.toPath());
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_BLOCKS);
+		processor.setInterleaved(true);
+		processor.setBlockSize(data.length);
+		byte[] compressed = compress(processor, data);
+		ByteBuffer frame = ByteBuffer.wrap(compressed);
+		int lengthAt = 2 * Integer.BYTES + 1;
+		assertEquals(HuffProcessor.BLOCK_HUFF4, compressed[2 * Integer.BYTES]);
+		frame.putInt(lengthAt, frame.getInt(lengthAt) - 1);
+		ByteArrayOutputStream truncated = new ByteArrayOutputStream();
+		truncated.write(compressed, 0, compressed.length - Integer.BYTES - 1);
+		truncated.write(compressed, compressed.length - Integer.BYTES, Integer.BYTES);
+		HuffException e = assertThrows(HuffException.class, () -> decompress(processor, truncated.toByteArray()));
+		assertEquals("sub-stream decoded to wrong size", e.getMessage());
+	}
+
+	@Test
+	void blocksCompressedInParallel() throws IOException {
+		HuffProcessor single = blocks(1);
+		HuffProcessor parallel = blocks(4);
+		for (File file : dataFiles()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			byte[] compressed = compress(parallel, data);
+			assertArrayEquals(compress(single, data), compressed, file.getName());
+			assertArrayEquals(data, decompress(single, compressed), file.getName());
+		}
+	}
+
+	/**
+	 * Groups of frames decoded on a pool are written in order
+	 */
+	@Test
+	void blocksDecompressedInParallel() throws IOException {
+		HuffProcessor single = blocks(1);
+		HuffProcessor parallel = blocks(4);
+		for (File file : dataFiles()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			assertArrayEquals(data, decompress(parallel, compress(single, data)), file.getName());
+		}
+	}
+
+	/**
+	 * Input that can't be reset is read once and compressed in blocks,
+	 * even through a BufferedInputStream, which could be marked
+	 */
+	@Test
+	void contextFormat() throws IOException {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_CONTEXT);
+		roundTripFiles(processor);
+		processor.setMaxCodeLength(HuffProcessor.BITS_PER_WORD + 1);
+		roundTripFiles(processor);
+	}
+
+	/**
+	 * Input too short to split into several tables, a byte following
+	 * itself in one context and the byte 0 of the context before the
+	 * first byte
+	 */
+	@Test
+	void contextFormatSmallInput() {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_CONTEXT);
+		byte[] same = new byte[1000];
+		Arrays.fill(same, (byte) 'a');
+		for (byte[] data : new byte[][] {{}, {'a'}, {0}, {0, 0, 'a', 0}, same}) {
+			assertArrayEquals(data, roundTrip(processor, data), "length " + data.length);
+		}
+		byte[] data = fibonacciData(LONG_CODE_VALUES);
+		assertArrayEquals(data, roundTrip(processor, data));
+	}
+
+	@Test
+	void streamReadOnce() throws IOException {
+		HuffProcessor processor = new HuffProcessor();
+		for (File file : dataFiles()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			InputStream once = new ByteArrayInputStream(data) {
+				@Override
+				public boolean markSupported() {
+					return false;
+				}
+			};
+			BitInputStream in = new BitInputStream(new BufferedInputStream(once));
+			assertFalse(in.markSupported());
+			processor.compress(in, new BitOutputStream(compressed));
+			assertArrayEquals(data, decompress(processor, compressed.toByteArray()), file.getName());
+		}
+	}
+
+	@Test
+	void codesLongerThanAnInt() {
+		byte[] data = fibonacciData(LONG_CODE_VALUES);
+		HuffProcessor processor = new HuffProcessor();
+		assertArrayEquals(data, roundTrip(processor, data));
+		processor.setHeaderFormat(HuffProcessor.HUFF_CANON);
+		assertArrayEquals(data, roundTrip(processor, data));
+		processor.setDecodeMode(HuffProcessor.DECODE_TREE);
+		assertArrayEquals(data, roundTrip(processor, data));
+	}
+
+	@Test
+	void fibonacciDataHasLongCodes() {
+		byte[] data = fibonacciData(LONG_CODE_VALUES);
+		int[] lengths = CanonicalCode.lengthsFromCounts(fibonacciCounts(data));
+		assertEquals(LONG_CODE_VALUES, Arrays.stream(lengths).max().getAsInt());
+	}
+
+	/**
+	 * Assert that data compressed with pairs and one symbol at a time
+	 * gives the same bytes
+	 */
+	private static void assertSameBits(int format, int blockSize, boolean interleaved, byte[] data, String name) {
+		byte[][] compressed = new byte[2][];
+		for (int mode : new int[] {HuffProcessor.ENCODE_SYMBOLS, HuffProcessor.ENCODE_PAIRS}) {
+			HuffProcessor processor = new HuffProcessor();
+			processor.setHeaderFormat(format);
+			processor.setBlockSize(blockSize);
+			processor.setInterleaved(interleaved);
+			processor.setEncodeMode(mode);
+			compressed[mode] = compress(processor, data);
+		}
+		assertArrayEquals(compressed[HuffProcessor.ENCODE_SYMBOLS], compressed[HuffProcessor.ENCODE_PAIRS], name);
+	}
+
+	/**
+	 * Round-trip the data files in HUFF_TREE and HUFF_CANON, tiny input
+	 * and 33-bit codes decoding with mode, and check truncated input
+	 * is rejected
+	 */
+	private static void checkDecodeMode(int mode) throws IOException {
+		for (int format : new int[] {HuffProcessor.HUFF_TREE, HuffProcessor.HUFF_CANON}) {
+			HuffProcessor processor = new HuffProcessor();
+			processor.setHeaderFormat(format);
+			processor.setDecodeMode(mode);
+			roundTripFiles(processor);
+			for (byte[] data : new byte[][] {{}, {'a'}, {'a', 'b', 'a'}, fibonacciData(LONG_CODE_VALUES)}) {
+				assertArrayEquals(data, roundTrip(processor, data), "length " + data.length);
+			}
+			byte[] compressed = compress(processor, "hello world".getBytes());
+			byte[] truncated = Arrays.copyOf(compressed, compressed.length - 2);
+			assertThrows(HuffException.class, () -> decompress(processor, truncated));
+		}
+	}
+
+	/**
+	 * Returns the files of the data directory that aren't compressed
+	 */
+	static List<File> dataFiles() {
+		File dir = dataDirectory();
+		File[] files = dir.listFiles((parent, name) -> !name.endsWith(".hf"));
+		assertNotNull(files, "no data directory " + dir);
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+
+	/**
+	 * Returns a processor of HUFF_BLOCKS in 64KB blocks
+	 */
+	static HuffProcessor blocks(int threads) {
+		HuffProcessor processor = new HuffProcessor();
+		processor.setHeaderFormat(HuffProcessor.HUFF_BLOCKS);
+		processor.setBlockSize(1 << 16);
+		processor.setThreads(threads);
+		return processor;
+	}
+
+	static File dataDirectory() {
+		return new File(System.getProperty("huff.data", "data"));
+	}
+
+	/**
+	 * Returns shuffled data in which value 7 * k occurs F(k + 2) times,
+	 * F the Fibonacci numbers, for k on [0, values). With PSEUDO_EOF
+	 * occurring once no two counts tie and the Huffman tree is a chain:
+	 * the longest code is values bits.
+	 */
+	static byte[] fibonacciData(int values) {
+		int[] counts = new int[values];
+		int total = 0;
+		for (int k = 0; k < values; k++) {
+			counts[k] = k < 2 ? k + 1 : counts[k - 1] + counts[k - 2];
+			total += counts[k];
+		}
+		byte[] data = new byte[total];
+		int size = 0;
+		for (int k = 0; k < values; k++) {
+			Arrays.fill(data, size, size + counts[k], (byte) (7 * k));
+			size += counts[k];
+		}
+		Random random = new Random(1);
+		for (int k = data.length - 1; k > 0; k--) {
+			int j = random.nextInt(k + 1);
+			byte value = data[k];
+			data[k] = data[j];
+			data[j] = value;
+		}
+		return data;
+	}
+
+	/**
+	 * Returns the counts of the values of data, and 1 for PSEUDO_EOF
+	 */
+	private static int[] fibonacciCounts(byte[] data) {
+		int[] counts = new int[HuffProcessor.ALPH_SIZE + 1];
+		for (byte value : data) {
+			counts[value & 0xff]++;
+		}
+		counts[HuffProcessor.PSEUDO_EOF] = 1;
+		return counts;
+	}
+
+	static void roundTripFiles(HuffProcessor processor) throws IOException {
+		for (File file : dataFiles()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			assertArrayEquals(data, roundTrip(processor, data), file.getName());
+		}
+	}
+
+	static byte[] roundTrip(HuffProcessor processor, byte[] data) {
+		return decompress(processor, compress(processor, data));
+	}
+
+	static byte[] compress(HuffProcessor processor, byte[] data) {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		processor.compress(new BitInputStream(new ByteArrayInputStream(data)), new BitOutputStream(compressed));
+		return compressed.toByteArray();
+	}
+
+	static byte[] decompress(HuffProcessor processor, byte[] compressed) {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		processor.decompress(new BitInputStream(new ByteArrayInputStream(compressed)), new BitOutputStream(data));
+		return data.toByteArray();
+	}
+}
@@ -0,0 +1,132 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of HuffmanInputStream reading what HuffmanOutputStream writes,
+ * from memory and from a pipe the writer keeps open, and of the
+ * IOExceptions both throw for bad data and failing streams.
+ */
+
+class HuffmanInputStreamTest {
+
+	@Test
+	void roundTripFiles() throws IOException {
+		for (File file : HuffProcessorTest.dataFiles()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (HuffmanOutputStream out = new HuffmanOutputStream(compressed, 1 << 16)) {
+				out.write(data);
+			}
+			try (HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+				assertArrayEquals(data, in.readAllBytes(), file.getName());
+			}
+		}
+	}
+
+	/**
+	 * Data cut short anywhere after the header, in a frame header, a
+	 * payload or before the end of the frames, is an IOException
+	 */
+	@Test
+	void truncatedStream() throws IOException {
+		byte[] data = Files.readAllBytes(new File(HuffProcessorTest.dataDirectory(), "melville.txt").toPath());
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (HuffmanOutputStream out = new HuffmanOutputStream(compressed, 1000)) {
+			out.write(data);
+		}
+		byte[] whole = compressed.toByteArray();
+		for (int length : new int[] {4, 6, 13, 500, whole.length / 2, whole.length - 4, whole.length - 1}) {
+			byte[] truncated = Arrays.copyOf(whole, length);
+			HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(truncated));
+			IOException e = assertThrows(IOException.class, () -> in.readAllBytes(), "length " + length);
+			assertTrue(e.getCause() instanceof HuffException, "length " + length);
+		}
+	}
+
+	@Test
+	void corruptBlockType() throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (HuffmanOutputStream out = new HuffmanOutputStream(compressed)) {
+			out.write("hello world".getBytes(StandardCharsets.US_ASCII));
+		}
+		byte[] corrupt = compressed.toByteArray();
+		corrupt[Integer.BYTES + Integer.BYTES] = 99;
+		HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(corrupt));
+		assertThrows(IOException.class, () -> in.read());
+	}
+
+	/**
+	 * The IOException of the underlying stream is thrown, not wrapped
+	 * in a RuntimeException
+	 */
+	@Test
+	void failingStreams() throws IOException {
+		IOException failure = new IOException("device full");
+		OutputStream failing = new OutputStream() {
+			@Override
+			public void write(int value) throws IOException {
+				throw failure;
+			}
+
+			@Override
+			public void write(byte[] data, int off, int len) throws IOException {
+				throw failure;
+			}
+		};
+		HuffmanOutputStream out = new HuffmanOutputStream(failing);
+		out.write(new byte[100]);
+		assertSame(failure, assertThrows(IOException.class, () -> out.flush()));
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (HuffmanOutputStream good = new HuffmanOutputStream(compressed)) {
+			good.write(new byte[100]);
+		}
+		byte[] header = Arrays.copyOf(compressed.toByteArray(), Integer.BYTES);
+		InputStream broken = new SequenceInputStream(new ByteArrayInputStream(header), new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw failure;
+			}
+		});
+		HuffmanInputStream in = new HuffmanInputStream(broken);
+		assertSame(failure, assertThrows(IOException.class, () -> in.read()));
+	}
+
+	/**
+	 * A flushed block is read while the writer is still open: reading
+	 * it must not wait for bytes the writer hasn't sent
+	 */
+	@Test
+	void flushedBlockFromLiveStream() throws IOException {
+		byte[] data = "hello world".getBytes(StandardCharsets.US_ASCII);
+		PipedInputStream pipe = new PipedInputStream(1 << 16);
+		HuffmanOutputStream out = new HuffmanOutputStream(new PipedOutputStream(pipe));
+		out.write(data);
+		out.flush();
+		byte[] read = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			HuffmanInputStream in = new HuffmanInputStream(pipe);
+			byte[] buffer = new byte[data.length];
+			int count = 0;
+			while (count < buffer.length) {
+				count += in.read(buffer, count, buffer.length - count);
+			}
+			return buffer;
+		});
+		assertArrayEquals(data, read);
+	}
+}